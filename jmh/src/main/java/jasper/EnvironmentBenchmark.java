@@ -0,0 +1,49 @@
+package jasper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Global lookups by name, and local lookups through depth enclosing scopes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EnvironmentBenchmark {
+    @Param({"1", "4", "16"})
+    public int depth;
+
+    private Environment globals;
+    private Environment innermost;
+    private Token name;
+
+    @Setup
+    public void setup() {
+        globals = new Environment();
+        for (int i = 0; i < 64; i++) {
+            globals.define("g" + i, (double) i);
+        }
+        name = Programs.identifier("g42");
+
+        Environment environment = new Environment(globals);
+        environment.define(0.0);
+        for (int i = 1; i < depth; i++) {
+            environment = new Environment(environment);
+            environment.define((double) i);
+        }
+        innermost = environment;
+    }
+
+    @Benchmark
+    public Object get() {
+        return globals.get(name);
+    }
+
+    // The outermost local, depth - 1 scopes up.
+    @Benchmark
+    public Object getAt() {
+        return innermost.getAt(depth - 1, 0);
+    }
+}
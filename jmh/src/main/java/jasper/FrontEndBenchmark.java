@@ -0,0 +1,44 @@
+package jasper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Each front end stage on its own, over generated scripts of growing size.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+    @Param({"100", "1000", "10000"})
+    public int lines;
+
+    private String source;
+    private List<Stmt> parsed;
+
+    @Setup
+    public void setup() {
+        source = Programs.generate(lines);
+        parsed = new Parser(new Scanner(source)).parse();
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(new Scanner(source)).parse();
+    }
+
+    @Benchmark
+    public Resolver resolve() {
+        Resolver resolver = new Resolver();
+        resolver.resolve(parsed);
+        return resolver;
+    }
+}
@@ -0,0 +1,48 @@
+package jasper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Property lookups on an instance: a field, a method of its class, and a
+// method inherited from its superclass. Methods are bound on every get.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InstanceBenchmark {
+    private Instance instance;
+    private final Token field = Programs.identifier("y");
+    private final Token method = Programs.identifier("sum");
+    private final Token inherited = Programs.identifier("base");
+
+    @Setup
+    public void setup() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(Programs.compile(
+                "class Base { base() { return 0; } }\n" +
+                "class Point < Base {\n" +
+                "  init(x, y) { this.x = x; this.y = y; }\n" +
+                "  sum() { return this.x + this.y; }\n" +
+                "}\n" +
+                "var p = Point(1, 2);\n"));
+        instance = (Instance) interpreter.globals.get(Programs.identifier("p"));
+    }
+
+    @Benchmark
+    public Object field() {
+        return instance.get(field);
+    }
+
+    @Benchmark
+    public Object method() {
+        return instance.get(method);
+    }
+
+    @Benchmark
+    public Object inheritedMethod() {
+        return instance.get(inherited);
+    }
+}
@@ -0,0 +1,53 @@
+package jasper;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+// Whole programs on the tree-walking Interpreter, with the JIT off. Each
+// program leaves its answer in the global 'result'.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    private static final Map<String, String> PROGRAMS = Map.of(
+            "fib",
+            "func fib(n) { if (n < 2) return n; return fib(n - 1) + fib(n - 2); }\n" +
+            "var result = fib(20);\n",
+            "loop",
+            "var result = 0;\n" +
+            "for (var i = 0; i < 100000; i = i + 1) { result = result + i; }\n",
+            "methods",
+            "class Counter {\n" +
+            "  init() { this.count = 0; }\n" +
+            "  add(n) { this.count = this.count + n; return this; }\n" +
+            "}\n" +
+            "var counter = Counter();\n" +
+            "for (var i = 0; i < 10000; i = i + 1) { counter.add(i); }\n" +
+            "var result = counter.count;\n",
+            "strings",
+            "var result = \"\";\n" +
+            "for (var i = 0; i < 1000; i = i + 1) { result = result + \"x\"; }\n");
+    private static final Token RESULT = Programs.identifier("result");
+
+    @Param({"fib", "loop", "methods", "strings"})
+    public String program;
+
+    private List<Stmt> statements;
+
+    @Setup
+    public void setup() {
+        statements = Programs.compile(PROGRAMS.get(program));
+    }
+
+    @Benchmark
+    public Object run() {
+        Interpreter interpreter = new Interpreter();
+        interpreter.interpret(statements);
+        return interpreter.globals.get(RESULT);
+    }
+}
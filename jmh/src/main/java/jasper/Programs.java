@@ -0,0 +1,45 @@
+package jasper;
+
+import java.util.*;
+
+/*
+ * Sources and compiled programs shared by the benchmarks.
+ */
+final class Programs {
+    private Programs() {
+    }
+
+    // A script of at least the given number of lines, repeating a block
+    // with a global, a function with a loop, a class and a call.
+    static String generate(int lines) {
+        StringBuilder source = new StringBuilder();
+        int written = 0;
+        for (int i = 0; written < lines; i++) {
+            source.append("var g").append(i).append(" = ").append(i).append(" * 2 + 1; // global ").append(i).append('\n');
+            source.append("func f").append(i).append("(a, b) {\n");
+            source.append("  var s = a;\n");
+            source.append("  while (s < b) { s = s + 1; }\n");
+            source.append("  if (s > 10) return s - 10; else return s;\n");
+            source.append("}\n");
+            source.append("class C").append(i).append(" {\n");
+            source.append("  init(x) { this.x = x; }\n");
+            source.append("  get() { return this.x + \"").append(i).append("\"; }\n");
+            source.append("}\n");
+            source.append("print f").append(i).append("(g").append(i).append(", 20);\n");
+            written += 11;
+        }
+        return source.toString();
+    }
+
+    // Scans, parses and resolves a program that is known to be valid.
+    static List<Stmt> compile(String source) {
+        List<Stmt> statements = new Parser(new Scanner(source)).parse();
+        new Resolver().resolve(statements);
+        if (Jasper.hadError) throw new IllegalStateException("Benchmark program has errors.");
+        return statements;
+    }
+
+    static Token identifier(String name) {
+        return new Token(TokenType.IDENTIFIER, name, null, 1);
+    }
+}
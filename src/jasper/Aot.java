@@ -0,0 +1,123 @@
+package jasper;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.jar.*;
+
+/*
+ * Ahead-of-time compilation (the jasperc mode). A script is compiled into a
+ * precompiled program archive: a jar holding its resolved program, in
+ * AstWriter's format, and a JitCode class for every function JitCompiler
+ * accepts. The archive has no Main-Class and carries no runtime, so it is
+ * run with "Jasper x prog.jar" rather than "java -jar". Loading it skips the
+ * front end, and those functions start out compiled instead of waiting to
+ * get hot. Top-level code and the functions the JIT refuses still run in
+ * the tree-walker.
+ *
+ * A compiled function's constants are AST nodes, so the jar records them
+ * as node ids and they are looked up again in the loaded program.
+ */
+final class Aot {
+    private static final String PROGRAM = "program.jast";
+    private static final String FUNCTIONS = "functions.idx";
+
+    private Aot() {
+    }
+
+    static void compile(List<Stmt> statements, Path jar) throws IOException {
+        ByteArrayOutputStream program = new ByteArrayOutputStream();
+        AstWriter writer = new AstWriter(program);
+        writer.write(statements);
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream functions = new DataOutputStream(index);
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (Map.Entry<Stmt.Function, Boolean> entry : writer.functions().entrySet()) {
+            Stmt.Function function = entry.getKey();
+            boolean isMethod = entry.getValue();
+            String className = "jasper/aot/" + function.name.lexeme + "$" + classes.size();
+            JitCompiler compiler = new JitCompiler(className);
+            try {
+                classes.put(className, compiler.compile(function, isMethod,
+                        isMethod && function.name.lexeme.equals("init")));
+            } catch (JitCompiler.Unsupported e) {
+                continue;
+            }
+            functions.writeInt(writer.idOf(function));
+            functions.writeUTF(className);
+            functions.writeInt(compiler.constantSources().size());
+            for (Expr source : compiler.constantSources()) {
+                functions.writeInt(writer.idOf(source));
+            }
+        }
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Created-By", "jasperc");
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar), manifest)) {
+            entry(out, PROGRAM, program.toByteArray());
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream count = new DataOutputStream(table);
+            count.writeInt(classes.size());
+            index.writeTo(count);
+            entry(out, FUNCTIONS, table.toByteArray());
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                entry(out, entry.getKey() + ".class", entry.getValue());
+            }
+        }
+    }
+
+    private static void entry(JarOutputStream out, String name, byte[] bytes) throws IOException {
+        out.putNextEntry(new JarEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    // With attachCode false the precompiled classes are ignored and every
+    // function starts in the interpreter.
+    static List<Stmt> load(Path jar, boolean attachCode) throws IOException {
+        try (JarFile file = new JarFile(jar.toFile())) {
+            AstReader reader = new AstReader(open(file, PROGRAM));
+            List<Stmt> statements = reader.read();
+            if (!attachCode) return statements;
+
+            Jit.Loader loader = new Jit.Loader(Aot.class.getClassLoader());
+            DataInputStream functions = new DataInputStream(open(file, FUNCTIONS));
+            int count = functions.readInt();
+            for (int i = 0; i < count; i++) {
+                Stmt.Function function = (Stmt.Function) reader.node(functions.readInt());
+                String className = functions.readUTF();
+                Object[] constants = new Object[functions.readInt()];
+                for (int j = 0; j < constants.length; j++) {
+                    constants[j] = constantOf(reader.node(functions.readInt()));
+                }
+                byte[] bytes = open(file, className + ".class").readAllBytes();
+                try {
+                    function.jitCode = loader.load(className, bytes, constants);
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    // Left to the interpreter, as if the JIT had refused it.
+                }
+            }
+            return statements;
+        }
+    }
+
+    private static InputStream open(JarFile file, String name) throws IOException {
+        JarEntry entry = file.getJarEntry(name);
+        if (entry == null) throw new IOException(file.getName() + " has no " + name + ".");
+        return file.getInputStream(entry);
+    }
+
+    // Inverse of how JitCompiler picks constants: call sites and property
+    // accesses are used as nodes, literals by value, and everything else
+    // by its token.
+    private static Object constantOf(Object node) {
+        if (node instanceof Expr.Literal) return ((Expr.Literal) node).value;
+        if (node instanceof Expr.Variable) return ((Expr.Variable) node).name;
+        if (node instanceof Expr.Assign) return ((Expr.Assign) node).name;
+        if (node instanceof Expr.Binary) return ((Expr.Binary) node).operator;
+        if (node instanceof Expr.Unary) return ((Expr.Unary) node).operator;
+        return node;
+    }
+}
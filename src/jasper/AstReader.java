@@ -0,0 +1,242 @@
+package jasper;
+
+import java.io.*;
+import java.util.*;
+
+import static jasper.AstWriter.*;
+
+/*
+ * Loads a program written by AstWriter, restoring Resolver's depths and
+ * slots, so it can run without going through the front end again. Nodes
+ * get the same ids AstWriter gave them.
+ */
+final class AstReader {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final DataInputStream in;
+    private final List<String> strings = new ArrayList<>();
+    private final List<Object> nodes = new ArrayList<>();
+    // Loops read inside each enclosing function body, innermost last;
+    // their function link can only be set once the Stmt.Function exists.
+    private final Deque<List<Stmt.While>> loops = new ArrayDeque<>();
+    private int line = 0;
+
+    AstReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    List<Stmt> read() throws IOException {
+        if (in.readInt() != MAGIC) throw new IOException("Not a compiled Jasper program.");
+        int version = in.readUnsignedShort();
+        if (version != VERSION) throw new IOException("Unsupported program format " + version + ".");
+        return statements();
+    }
+
+    Object node(int id) {
+        return nodes.get(id);
+    }
+
+    private int varint() throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+
+    private String string() throws IOException {
+        int index = varint();
+        if (index != 0) return strings.get(index - 1);
+        byte[] bytes = new byte[varint()];
+        in.readFully(bytes);
+        String value = new String(bytes, java.nio.charset.StandardCharsets.UTF_8);
+        strings.add(value);
+        return value;
+    }
+
+    private Token token() throws IOException {
+        TokenType type = TOKEN_TYPES[in.readUnsignedByte()];
+        String lexeme = string();
+        int line = line();
+        Object literal = null;
+        if (type == TokenType.NUMBER) literal = in.readDouble();
+        if (type == TokenType.STRING) literal = string();
+        return new Token(type, lexeme, literal, line);
+    }
+
+    private int line() throws IOException {
+        int delta = varint();
+        line += (delta >>> 1) ^ -(delta & 1);
+        return line;
+    }
+
+    private List<Stmt> statements() throws IOException {
+        int count = varint();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) statements.add(stmt());
+        return statements;
+    }
+
+    // Reserves the id of a node whose children are read before it can be
+    // built.
+    private int reserve() {
+        nodes.add(null);
+        return nodes.size() - 1;
+    }
+
+    private <T> T built(int id, T node) {
+        nodes.set(id, node);
+        return node;
+    }
+
+    // A statement's line follows the statement.
+    private Stmt stmt() throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == 0) return null;
+        Stmt stmt = stmt(tag);
+        stmt.line = line();
+        return stmt;
+    }
+
+    private Stmt stmt(int tag) throws IOException {
+        int id = reserve();
+        switch (tag) {
+            case BLOCK:
+                return built(id, new Stmt.Block(statements()));
+            case EXPRESSION:
+                return built(id, new Stmt.Expression(expr()));
+            case CLASS: {
+                Token name = token();
+                Expr.Variable superclass = (Expr.Variable) expr();
+                int count = varint();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) methods.add((Stmt.Function) stmt());
+                return built(id, new Stmt.Class(name, superclass, methods));
+            }
+            case FUNCTION: {
+                Token name = token();
+                int count = varint();
+                List<Token> parameters = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) parameters.add(token());
+                loops.push(new ArrayList<>());
+                List<Stmt> body = statements();
+                Stmt.Function function = new Stmt.Function(name, parameters, body);
+                for (Stmt.While loop : loops.pop()) loop.function = function;
+                return built(id, function);
+            }
+            case IF:
+                return built(id, new Stmt.If(expr(), stmt(), stmt()));
+            case IMPORT:
+                return built(id, new Stmt.Import(token(), token()));
+            case PRINT:
+                return built(id, new Stmt.Print(expr()));
+            case RETURN: {
+                Stmt.Return stmt = new Stmt.Return(token(), expr());
+                stmt.tailCall = in.readUnsignedByte() != 0;
+                return built(id, stmt);
+            }
+            case VAR:
+                return built(id, new Stmt.Var(token(), expr()));
+            case WHILE: {
+                Stmt.While loop = new Stmt.While(expr(), stmt());
+                if (!loops.isEmpty()) loops.peek().add(loop);
+                return built(id, loop);
+            }
+        }
+        throw new IOException("Corrupt program: statement tag " + tag + ".");
+    }
+
+    private Expr expr() throws IOException {
+        int tag = in.readUnsignedByte();
+        if (tag == 0) return null;
+        int id = reserve();
+        switch (tag) {
+            case ASSIGN: {
+                Token name = token();
+                int depth = varint() - 1;
+                int slot = varint();
+                Expr.Assign expr = new Expr.Assign(name, expr());
+                expr.depth = depth;
+                expr.slot = slot;
+                return built(id, expr);
+            }
+            case BINARY:
+                return built(id, new Expr.Binary(expr(), token(), expr()));
+            case CALL: {
+                Expr callee = expr();
+                Token paren = token();
+                int count = varint();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) arguments.add(expr());
+                return built(id, new Expr.Call(callee, paren, arguments));
+            }
+            case GET:
+                return built(id, new Expr.Get(expr(), token()));
+            case SET:
+                return built(id, new Expr.Set(expr(), token(), expr()));
+            case INDEX:
+                return built(id, new Expr.Index(expr(), token(), expr()));
+            case LIST: {
+                Token bracket = token();
+                int count = varint();
+                List<Expr> elements = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) elements.add(expr());
+                return built(id, new Expr.ListLiteral(bracket, elements));
+            }
+            case MAP: {
+                Token brace = token();
+                int count = varint();
+                List<Expr> keys = new ArrayList<>(count);
+                List<Expr> values = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    keys.add(expr());
+                    values.add(expr());
+                }
+                return built(id, new Expr.MapLiteral(brace, keys, values));
+            }
+            case SET_INDEX:
+                return built(id, new Expr.SetIndex(expr(), token(), expr(), expr()));
+            case SUPER: {
+                Expr.Super expr = new Expr.Super(token(), token());
+                expr.depth = varint() - 1;
+                expr.slot = varint();
+                return built(id, expr);
+            }
+            case THIS: {
+                Expr.This expr = new Expr.This(token());
+                expr.depth = varint() - 1;
+                expr.slot = varint();
+                return built(id, expr);
+            }
+            case GROUPING:
+                return built(id, new Expr.Grouping(expr()));
+            case LITERAL:
+                return built(id, new Expr.Literal(literal()));
+            case LOGICAL:
+                return built(id, new Expr.Logical(expr(), token(), expr()));
+            case UNARY:
+                return built(id, new Expr.Unary(token(), expr()));
+            case VARIABLE: {
+                Expr.Variable expr = new Expr.Variable(token());
+                expr.depth = varint() - 1;
+                expr.slot = varint();
+                return built(id, expr);
+            }
+        }
+        throw new IOException("Corrupt program: expression tag " + tag + ".");
+    }
+
+    private Object literal() throws IOException {
+        int tag = in.readUnsignedByte();
+        switch (tag) {
+            case NIL: return null;
+            case TRUE: return true;
+            case FALSE: return false;
+            case NUMBER: return in.readDouble();
+            case STRING: return string();
+            case INTEGER: return (double) varint();
+        }
+        throw new IOException("Corrupt program: literal tag " + tag + ".");
+    }
+}
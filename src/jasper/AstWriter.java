@@ -0,0 +1,417 @@
+package jasper;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Writes a resolved program in the binary form AstReader loads, so it can
+ * run again without scanning, parsing or resolving. Each node is a tag
+ * byte followed by its fields in declaration order, together with the
+ * depth and slot Resolver left on it; the links only Optimizer reads are
+ * dropped, since it has already run. Strings are written once and then
+ * referred to by number. Nodes are numbered in the order they are written,
+ * which AstReader reproduces, so other tables can refer to nodes by id.
+ */
+final class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int MAGIC = 0x4a415354; // "JAST"
+    static final int VERSION = 6;
+
+    // Node tags. Zero stands for an absent optional node.
+    static final int ASSIGN = 1, BINARY = 2, CALL = 3, GET = 4, SET = 5, SUPER = 6, THIS = 7,
+            GROUPING = 8, LITERAL = 9, LOGICAL = 10, UNARY = 11, VARIABLE = 12, INDEX = 13,
+            LIST = 14, SET_INDEX = 15, MAP = 16;
+    static final int BLOCK = 20, EXPRESSION = 21, CLASS = 22, FUNCTION = 23, IF = 24, PRINT = 25,
+            RETURN = 26, VAR = 27, WHILE = 28, IMPORT = 29;
+
+    // Literal value tags.
+    static final int NIL = 0, TRUE = 1, FALSE = 2, NUMBER = 3, STRING = 4, INTEGER = 5;
+
+    private final DataOutputStream out;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final Map<Object, Integer> ids = new IdentityHashMap<>();
+    // Lines are written relative to the previous token's.
+    private int line = 0;
+    // Every function declaration written, with whether it is a method.
+    private final Map<Stmt.Function, Boolean> functions = new LinkedHashMap<>();
+
+    AstWriter(OutputStream out) {
+        this.out = new DataOutputStream(out);
+    }
+
+    void write(List<Stmt> statements) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        try {
+            statements(statements);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
+    }
+
+    int idOf(Object node) {
+        return ids.get(node);
+    }
+
+    Map<Stmt.Function, Boolean> functions() {
+        return functions;
+    }
+
+    private void id(Object node) {
+        ids.put(node, ids.size());
+    }
+
+    private void u1(int value) {
+        try {
+            out.writeByte(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Unsigned LEB128, so the small numbers that dominate take one byte.
+    private void varint(int value) {
+        while ((value & ~0x7f) != 0) {
+            u1((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        u1(value);
+    }
+
+    private void string(String value) {
+        Integer index = strings.get(value);
+        if (index != null) {
+            varint(index + 1);
+            return;
+        }
+        varint(0);
+        byte[] bytes = value.getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        varint(bytes.length);
+        try {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        strings.put(value, strings.size());
+    }
+
+    private void number(double value) {
+        try {
+            out.writeDouble(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void token(Token token) {
+        u1(token.type.ordinal());
+        string(token.lexeme);
+        line(token.line);
+        if (token.type == TokenType.NUMBER) number((double) token.literal);
+        if (token.type == TokenType.STRING) string((String) token.literal);
+    }
+
+    // Lines are written as the zigzag-encoded change from the last one.
+    private void line(int line) {
+        int delta = line - this.line;
+        varint((delta << 1) ^ (delta >> 31));
+        this.line = line;
+    }
+
+    private void resolution(int depth, int slot) {
+        varint(depth + 1);
+        varint(slot);
+    }
+
+    private void expr(Expr expr) {
+        if (expr == null) {
+            u1(0);
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    private void stmt(Stmt stmt) {
+        if (stmt == null) {
+            u1(0);
+        } else {
+            stmt.accept(this);
+            line(stmt.line);
+        }
+    }
+
+    private void statements(List<? extends Stmt> statements) {
+        varint(statements.size());
+        for (Stmt statement : statements) stmt(statement);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        id(stmt);
+        u1(BLOCK);
+        statements(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        id(stmt);
+        u1(EXPRESSION);
+        expr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        id(stmt);
+        u1(CLASS);
+        token(stmt.name);
+        expr(stmt.superclass);
+        for (Stmt.Function method : stmt.methods) functions.put(method, true);
+        statements(stmt.methods);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        id(stmt);
+        u1(FUNCTION);
+        functions.putIfAbsent(stmt, false);
+        token(stmt.name);
+        varint(stmt.parameters.size());
+        for (Token parameter : stmt.parameters) token(parameter);
+        statements(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        id(stmt);
+        u1(IF);
+        expr(stmt.condition);
+        stmt(stmt.then);
+        stmt(stmt.elseBranch);
+        return null;
+    }
+
+    // The module itself is not written; it is loaded again on each run.
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        id(stmt);
+        u1(IMPORT);
+        token(stmt.keyword);
+        token(stmt.path);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        id(stmt);
+        u1(PRINT);
+        expr(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        id(stmt);
+        u1(RETURN);
+        token(stmt.keyword);
+        expr(stmt.value);
+        u1(stmt.tailCall ? 1 : 0);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        id(stmt);
+        u1(VAR);
+        token(stmt.name);
+        expr(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        id(stmt);
+        u1(WHILE);
+        expr(stmt.condition);
+        stmt(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        id(expr);
+        u1(ASSIGN);
+        token(expr.name);
+        resolution(expr.depth, expr.slot);
+        expr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        id(expr);
+        u1(BINARY);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        id(expr);
+        u1(CALL);
+        expr(expr.callee);
+        token(expr.paren);
+        varint(expr.arguments.size());
+        for (Expr argument : expr.arguments) expr(argument);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        id(expr);
+        u1(GET);
+        expr(expr.object);
+        token(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        id(expr);
+        u1(INDEX);
+        expr(expr.object);
+        token(expr.bracket);
+        expr(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        id(expr);
+        u1(LIST);
+        token(expr.bracket);
+        varint(expr.elements.size());
+        for (Expr element : expr.elements) expr(element);
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        id(expr);
+        u1(MAP);
+        token(expr.brace);
+        varint(expr.keys.size());
+        for (int i = 0; i < expr.keys.size(); i++) {
+            expr(expr.keys.get(i));
+            expr(expr.values.get(i));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        id(expr);
+        u1(SET);
+        expr(expr.object);
+        token(expr.name);
+        expr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        id(expr);
+        u1(SET_INDEX);
+        expr(expr.object);
+        token(expr.bracket);
+        expr(expr.index);
+        expr(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        id(expr);
+        u1(SUPER);
+        token(expr.keyword);
+        token(expr.method);
+        resolution(expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        id(expr);
+        u1(THIS);
+        token(expr.keyword);
+        resolution(expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        id(expr);
+        u1(GROUPING);
+        expr(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        id(expr);
+        u1(LITERAL);
+        Object value = expr.value;
+        if (value == null) {
+            u1(NIL);
+        } else if (value instanceof Boolean) {
+            u1((boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+            double number = (double) value;
+            // Most numbers in scripts are small whole numbers.
+            if (number == (int) number && number >= 0 && Double.doubleToRawLongBits(number) != Long.MIN_VALUE) {
+                u1(INTEGER);
+                varint((int) number);
+            } else {
+                u1(NUMBER);
+                number(number);
+            }
+        } else {
+            u1(STRING);
+            string((String) value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        id(expr);
+        u1(LOGICAL);
+        expr(expr.left);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        id(expr);
+        u1(UNARY);
+        token(expr.operator);
+        expr(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        id(expr);
+        u1(VARIABLE);
+        token(expr.name);
+        resolution(expr.depth, expr.slot);
+        return null;
+    }
+}
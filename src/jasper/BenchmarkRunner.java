@@ -0,0 +1,160 @@
+package jasper;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/*
+ * Runs .jasp benchmarks in this process, for whole-program numbers. Each
+ * program is compiled once and gets an executor of its own, so globals
+ * and JIT state do not carry over between programs. It is run a few times
+ * to warm up, then run again
+ * while measuring wall time and the bytes this thread allocates, which JMX
+ * counts. Programs' output is discarded. Results can be saved as a
+ * baseline; later runs are compared with it and changes beyond the
+ * tolerances are flagged.
+ */
+final class BenchmarkRunner {
+    // Changes smaller than these, as fractions, are taken to be noise.
+    // Allocation is far steadier than wall time.
+    private static final double TIME_TOLERANCE = 0.15;
+    private static final double ALLOC_TOLERANCE = 0.05;
+
+    private final Function<Source, List<Stmt>> compiler;
+    private final Supplier<Consumer<List<Stmt>>> executors;
+    private final int warmup;
+    private final int iterations;
+
+    BenchmarkRunner(Function<Source, List<Stmt>> compiler, Supplier<Consumer<List<Stmt>>> executors,
+                    int warmup, int iterations) {
+        this.compiler = compiler;
+        this.executors = executors;
+        this.warmup = warmup;
+        this.iterations = iterations;
+    }
+
+    private static final class Result {
+        final String name;
+        final double millis;
+        final long bytes;
+
+        Result(String name, double millis, long bytes) {
+            this.name = name;
+            this.millis = millis;
+            this.bytes = bytes;
+        }
+    }
+
+    // Runs path, a .jasp file or a directory of them, and compares with
+    // baseline if it exists. Returns false when something failed or got
+    // slower or hungrier than the baseline allows.
+    boolean run(Path path, Path baseline, boolean save) throws IOException {
+        List<Path> programs;
+        if (Files.isDirectory(path)) {
+            try (Stream<Path> files = Files.list(path)) {
+                programs = files.filter(file -> file.toString().endsWith(".jasp")).sorted().toList();
+            }
+        } else {
+            programs = List.of(path);
+        }
+        Map<String, Result> previous = Files.exists(baseline) ? load(baseline) : Map.of();
+
+        boolean ok = true;
+        List<Result> results = new ArrayList<>();
+        System.out.printf("%-24s %10s %12s   %s%n", "benchmark", "time ms", "alloc MB",
+                previous.isEmpty() ? "" : "vs " + baseline);
+        for (Path program : programs) {
+            String name = program.getFileName().toString();
+            Result result = measure(name, Source.map(program));
+            if (result == null) {
+                System.out.printf("%-24s failed%n", name);
+                ok = false;
+                continue;
+            }
+            results.add(result);
+            String comparison = "";
+            Result before = previous.get(name);
+            if (before != null) {
+                double time = change(before.millis, result.millis);
+                double alloc = change(before.bytes, result.bytes);
+                comparison = String.format("time %+.1f%%  alloc %+.1f%%", time * 100, alloc * 100);
+                if (time > TIME_TOLERANCE || alloc > ALLOC_TOLERANCE) {
+                    comparison += "  REGRESSION";
+                    ok = false;
+                }
+            }
+            System.out.printf("%-24s %10.1f %12.1f   %s%n", name, result.millis, result.bytes / 1e6, comparison);
+        }
+
+        if (save) {
+            store(baseline, results);
+            System.out.println("Saved baseline " + baseline);
+        }
+        return ok;
+    }
+
+    // The medians of the measured runs, or null if the program has errors.
+    private Result measure(String name, Source source) {
+        // A program failing earlier must not fail this one.
+        Jasper.hadError = false;
+        Jasper.hadRuntimeError = false;
+        List<Stmt> statements = compiler.apply(source);
+        if (statements == null) return null;
+        Consumer<List<Stmt>> executor = executors.get();
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        PrintStream out = System.out;
+        double[] millis = new double[iterations];
+        long[] bytes = new long[iterations];
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            for (int i = 0; i < warmup + iterations; i++) {
+                long allocated = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                executor.accept(statements);
+                long elapsed = System.nanoTime() - start;
+                if (Jasper.hadError || Jasper.hadRuntimeError) return null;
+                if (i >= warmup) {
+                    millis[i - warmup] = elapsed / 1e6;
+                    bytes[i - warmup] = threads.getCurrentThreadAllocatedBytes() - allocated;
+                }
+            }
+        } finally {
+            System.setOut(out);
+        }
+        Arrays.sort(millis);
+        Arrays.sort(bytes);
+        return new Result(name, millis[iterations / 2], bytes[iterations / 2]);
+    }
+
+    private static double change(double before, double after) {
+        if (before == 0) return after == 0 ? 0 : 1;
+        return (after - before) / before;
+    }
+
+    // One benchmark per line: name, milliseconds, bytes allocated.
+    private static Map<String, Result> load(Path baseline) throws IOException {
+        Map<String, Result> results = new HashMap<>();
+        for (String line : Files.readAllLines(baseline)) {
+            if (line.isBlank() || line.startsWith("#")) continue;
+            String[] fields = line.trim().split("\\s+");
+            results.put(fields[0], new Result(fields[0], Double.parseDouble(fields[1]), Long.parseLong(fields[2])));
+        }
+        return results;
+    }
+
+    private static void store(Path baseline, List<Result> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# benchmark  time-ms  allocated-bytes");
+        for (Result result : results) {
+            lines.add(String.format(Locale.ROOT, "%s %.3f %d", result.name, result.millis, result.bytes));
+        }
+        Files.write(baseline, lines);
+    }
+}
@@ -0,0 +1,164 @@
+package jasper;
+
+/*
+ * Executable behaviour of an Expr.Binary site. Every site starts out
+ * UNINITIALIZED and rewrites its own node the first time it runs, picking
+ * a specialization for the operand types it saw. A specialized node
+ * whose guard fails rewrites the site to Generic for good, so a site
+ * changes state at most twice.
+ */
+abstract class BinaryNode {
+    static final BinaryNode UNINITIALIZED = new Uninitialized();
+
+    abstract Object execute(Expr.Binary expr, Object left, Object right);
+
+    private static BinaryNode specialize(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return DoubleAdd.INSTANCE;
+                case MINUS: return DoubleSubtract.INSTANCE;
+                case STAR: return DoubleMultiply.INSTANCE;
+                case SLASH: return DoubleDivide.INSTANCE;
+                case LESS: return DoubleLess.INSTANCE;
+                case LESS_EQUAL: return DoubleLessEqual.INSTANCE;
+                case GREATER: return DoubleGreater.INSTANCE;
+                case GREATER_EQUAL: return DoubleGreaterEqual.INSTANCE;
+            }
+        }
+        if (operator == TokenType.PLUS && Concat.isString(left) && Concat.isString(right)) {
+            return StringConcat.INSTANCE;
+        }
+        return Generic.INSTANCE;
+    }
+
+    private static Object deoptimize(Expr.Binary expr, Object left, Object right) {
+        expr.node = Generic.INSTANCE;
+        return Generic.INSTANCE.execute(expr, left, right);
+    }
+
+    private static final class Uninitialized extends BinaryNode {
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            BinaryNode node = specialize(expr.operator.type, left, right);
+            expr.node = node;
+            return node.execute(expr, left, right);
+        }
+    }
+
+    static final class Generic extends BinaryNode {
+        static final Generic INSTANCE = new Generic();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            return Interpreter.binary(expr.operator, left, right);
+        }
+    }
+
+    static final class DoubleAdd extends BinaryNode {
+        static final DoubleAdd INSTANCE = new DoubleAdd();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left + (double) right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    static final class StringConcat extends BinaryNode {
+        static final StringConcat INSTANCE = new StringConcat();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (Concat.isString(left) && Concat.isString(right)) {
+                return Concat.of(left, right);
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    static final class DoubleSubtract extends BinaryNode {
+        static final DoubleSubtract INSTANCE = new DoubleSubtract();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left - (double) right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    static final class DoubleMultiply extends BinaryNode {
+        static final DoubleMultiply INSTANCE = new DoubleMultiply();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left * (double) right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    static final class DoubleDivide extends BinaryNode {
+        static final DoubleDivide INSTANCE = new DoubleDivide();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left / (double) right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    static final class DoubleLess extends BinaryNode {
+        static final DoubleLess INSTANCE = new DoubleLess();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left < (double) right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    static final class DoubleLessEqual extends BinaryNode {
+        static final DoubleLessEqual INSTANCE = new DoubleLessEqual();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left <= (double) right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    static final class DoubleGreater extends BinaryNode {
+        static final DoubleGreater INSTANCE = new DoubleGreater();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left > (double) right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+
+    static final class DoubleGreaterEqual extends BinaryNode {
+        static final DoubleGreaterEqual INSTANCE = new DoubleGreaterEqual();
+
+        @Override
+        Object execute(Expr.Binary expr, Object left, Object right) {
+            if (left instanceof Double && right instanceof Double) {
+                return (double) left >= (double) right;
+            }
+            return deoptimize(expr, left, right);
+        }
+    }
+}
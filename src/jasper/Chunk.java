@@ -0,0 +1,57 @@
+package jasper;
+
+import java.util.*;
+
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    // Filled from constantList by Compiler once the chunk is complete.
+    Object[] constants;
+    // The number constants again, unboxed, at the same indices.
+    double[] numbers;
+    // One per property instruction, numbered by their cache operand.
+    VmPropertyCache[] caches;
+    private int cacheCount = 0;
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(int b, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = (byte) b;
+        lines[count] = line;
+        count++;
+    }
+
+    // Numbers and strings are pooled; functions always get a fresh entry.
+    int addConstant(Object value) {
+        boolean pooled = value instanceof Double || value instanceof String;
+        if (pooled) {
+            Integer index = constantIndex.get(value);
+            if (index != null) return index;
+        }
+        constantList.add(value);
+        int index = constantList.size() - 1;
+        if (pooled) constantIndex.put(value, index);
+        return index;
+    }
+
+    int addCache() {
+        return cacheCount++;
+    }
+
+    void finish() {
+        code = Arrays.copyOf(code, count);
+        lines = Arrays.copyOf(lines, count);
+        constants = constantList.toArray();
+        caches = new VmPropertyCache[cacheCount];
+        for (int i = 0; i < cacheCount; i++) caches[i] = new VmPropertyCache();
+        numbers = new double[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            if (constants[i] instanceof Double) numbers[i] = (double) constants[i];
+        }
+    }
+}
@@ -0,0 +1,305 @@
+package jasper;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Just enough of the class file format for JitCompiler: a constant pool,
+ * methods with a Code attribute, and forward jumps patched through
+ * labels. Classes are written as version 49 so the JVM verifies them by
+ * type inference and no StackMapTable is needed.
+ */
+final class ClassWriter {
+    private static final int VERSION = 49;
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+    private final List<Code> methods = new ArrayList<>();
+    private final String name;
+    private final String superName;
+
+    ClassWriter(String name, String superName) {
+        this.name = name;
+        this.superName = superName;
+    }
+
+    Code method(int access, String methodName, String descriptor) {
+        Code code = new Code(access, utf8(methodName), utf8(descriptor), descriptor);
+        methods.add(code);
+        return code;
+    }
+
+    byte[] toByteArray() {
+        try {
+            int thisIndex = classRef(name);
+            int superIndex = classRef(superName);
+            int codeIndex = utf8("Code");
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(methods.size());
+            for (Code method : methods) method.write(out, codeIndex);
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int entry(String key, int tag, Writer contents) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            pool.writeByte(tag);
+            contents.write();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    private interface Writer {
+        void write() throws IOException;
+    }
+
+    int utf8(String value) {
+        return entry("U" + value, 1, () -> pool.writeUTF(value));
+    }
+
+    int integer(int value) {
+        return entry("I" + value, 3, () -> pool.writeInt(value));
+    }
+
+    int classRef(String internalName) {
+        int nameIndex = utf8(internalName);
+        return entry("C" + internalName, 7, () -> pool.writeShort(nameIndex));
+    }
+
+    private int nameAndType(String memberName, String descriptor) {
+        int nameIndex = utf8(memberName);
+        int typeIndex = utf8(descriptor);
+        return entry("N" + memberName + ":" + descriptor, 12, () -> {
+            pool.writeShort(nameIndex);
+            pool.writeShort(typeIndex);
+        });
+    }
+
+    private int memberRef(int tag, String owner, String memberName, String descriptor) {
+        int ownerIndex = classRef(owner);
+        int typeIndex = nameAndType(memberName, descriptor);
+        return entry(tag + owner + "." + memberName + ":" + descriptor, tag, () -> {
+            pool.writeShort(ownerIndex);
+            pool.writeShort(typeIndex);
+        });
+    }
+
+    // A jump target. Jumps to a label that is not placed yet are patched
+    // when it is.
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<int[]> fixups = new ArrayList<>();
+    }
+
+    /*
+     * Bytecode of one method. Every emitting call states or derives its
+     * effect on the operand stack so max_stack comes out exact.
+     */
+    final class Code {
+        private final int access;
+        private final int nameIndex;
+        private final int descriptorIndex;
+        private byte[] code = new byte[256];
+        private int length = 0;
+        private int stack = 0;
+        private int maxStack = 0;
+        int maxLocals;
+
+        private Code(int access, int nameIndex, int descriptorIndex, String descriptor) {
+            this.access = access;
+            this.nameIndex = nameIndex;
+            this.descriptorIndex = descriptorIndex;
+            this.maxLocals = 1 + argumentSlots(descriptor);
+        }
+
+        int size() {
+            return length;
+        }
+
+        private void u1(int value) {
+            if (length == code.length) code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        void op(int opcode, int delta) {
+            u1(opcode);
+            adjust(delta);
+        }
+
+        void aload(int local) {
+            local(0x19, local, 1);
+        }
+
+        void astore(int local) {
+            local(0x3a, local, -1);
+        }
+
+        private void local(int opcode, int local, int delta) {
+            if (local > 0xff) {
+                u1(0xc4); // wide
+                u1(opcode);
+                u2(local);
+            } else {
+                u1(opcode);
+                u1(local);
+            }
+            adjust(delta);
+            maxLocals = Math.max(maxLocals, local + 1);
+        }
+
+        void iconst(int value) {
+            if (value >= -1 && value <= 5) {
+                u1(0x03 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                u1(0x10);
+                u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                u1(0x11);
+                u2(value);
+            } else {
+                u1(0x13); // ldc_w
+                u2(integer(value));
+            }
+            adjust(1);
+        }
+
+        void anewarray(String internalName) {
+            u1(0xbd);
+            u2(classRef(internalName));
+        }
+
+        void getfield(String owner, String field, String descriptor) {
+            u1(0xb4);
+            u2(memberRef(9, owner, field, descriptor));
+            // Pops the object, pushes the value.
+        }
+
+        void invokestatic(String owner, String method, String descriptor) {
+            u1(0xb8);
+            u2(memberRef(10, owner, method, descriptor));
+            adjust(returnSlots(descriptor) - argumentSlots(descriptor));
+        }
+
+        void invokespecial(String owner, String method, String descriptor) {
+            u1(0xb7);
+            u2(memberRef(10, owner, method, descriptor));
+            adjust(returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+        }
+
+        void invokeinterface(String owner, String method, String descriptor) {
+            int arguments = argumentSlots(descriptor);
+            u1(0xb9);
+            u2(memberRef(11, owner, method, descriptor));
+            u1(arguments + 1);
+            u1(0);
+            adjust(returnSlots(descriptor) - arguments - 1);
+        }
+
+        // Conditional jumps pop what they test; goto leaves the code after
+        // it unreachable until the next label.
+        void jump(int opcode, Label target, int delta) {
+            int at = length;
+            u1(opcode);
+            adjust(delta);
+            if (target.position != -1) {
+                offset(at, length, target.position);
+            } else {
+                target.fixups.add(new int[] {at, length});
+                u2(0);
+            }
+            target.stack = stack;
+        }
+
+        void mark(Label label) {
+            label.position = length;
+            if (label.stack != -1) stack = label.stack;
+            label.stack = stack;
+            for (int[] fixup : label.fixups) {
+                int saved = length;
+                length = fixup[1];
+                offset(fixup[0], length, label.position);
+                length = saved;
+            }
+            label.fixups.clear();
+        }
+
+        private void offset(int instruction, int at, int target) {
+            int offset = target - instruction;
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new IllegalStateException("Jump out of range.");
+            }
+            length = at;
+            u2(offset);
+        }
+
+        private void write(DataOutputStream out, int codeIndex) throws IOException {
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+            out.writeShort(codeIndex);
+            out.writeInt(12 + length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(length);
+            out.write(code, 0, length);
+            out.writeShort(0); // exception table
+            out.writeShort(0); // attributes
+        }
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            while (c == '[') c = descriptor.charAt(++i);
+            if (c == 'L') i = descriptor.indexOf(';', i);
+            slots += (c == 'J' || c == 'D') && descriptor.charAt(i - 1) != '[' ? 2 : 1;
+            i++;
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        char c = descriptor.charAt(descriptor.indexOf(')') + 1);
+        if (c == 'V') return 0;
+        return c == 'J' || c == 'D' ? 2 : 1;
+    }
+}
@@ -0,0 +1,716 @@
+package jasper;
+
+import java.util.*;
+
+/*
+ * Compiles a resolved program into bytecode for the VM. Locals live in
+ * stack slots of their function's frame, captured variables become
+ * upvalues and globals are addressed by an index the VM hands out.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        METHOD,
+        INITIALIZER
+    }
+
+    private static class Local {
+        final String name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final CompiledFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, CompiledFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+            // Slot zero holds the receiver in methods and the callee otherwise.
+            String slotZero = (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) ? "this" : "";
+            locals.add(new Local(slotZero, 0));
+        }
+    }
+
+    private final VM vm;
+    private FunctionState current;
+    private int line = 1;
+
+    Compiler(VM vm) {
+        this.vm = vm;
+    }
+
+    CompiledFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new CompiledFunction(null), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        return endFunction();
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        if (stmt.expression instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) stmt.expression;
+            compile(assign.value);
+            line = assign.name.line;
+            int slot = resolveLocal(current, assign.name.lexeme);
+            if (slot != -1) {
+                emit(OpCode.STORE_LOCAL);
+                emit(slot);
+                return null;
+            }
+            if (resolveUpvalue(current, assign.name) == -1) {
+                emit(OpCode.STORE_GLOBAL);
+                emitShort(vm.globalSlot(assign.name.lexeme));
+                return null;
+            }
+            storeVariable(assign.name);
+        } else {
+            compile(stmt.expression);
+        }
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        int name = identifier(stmt.name.lexeme);
+        declareVariable(stmt.name);
+        emit(OpCode.CLASS);
+        emitShort(name);
+        defineVariable(stmt.name);
+
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+            beginScope();
+            addLocal(new Token(TokenType.SUPER, "super", null, stmt.superclass.name.line));
+            markInitialized();
+            loadVariable(stmt.name);
+            emit(OpCode.INHERIT);
+        }
+
+        loadVariable(stmt.name);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            emit(OpCode.METHOD);
+            emitShort(identifier(method.name.lexeme));
+        }
+        emit(OpCode.POP);
+
+        if (stmt.superclass != null) endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declareVariable(stmt.name);
+        markInitialized();
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int thenJump = condition(stmt.condition);
+        compile(stmt.then);
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    // Compiles the condition of an if or loop and the jump taken when it
+    // is false, fusing a numeric comparison with the jump.
+    private int condition(Expr condition) {
+        if (condition instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) condition;
+            byte jump;
+            switch (binary.operator.type) {
+                case LESS: jump = OpCode.JUMP_IF_NOT_LESS; break;
+                case LESS_EQUAL: jump = OpCode.JUMP_IF_NOT_LESS_EQUAL; break;
+                case GREATER: jump = OpCode.JUMP_IF_NOT_GREATER; break;
+                case GREATER_EQUAL: jump = OpCode.JUMP_IF_NOT_GREATER_EQUAL; break;
+                default: jump = -1; break;
+            }
+            if (jump != -1) {
+                compile(binary.left);
+                // The _NUMBER and _LOCAL forms follow in the same order.
+                line = binary.operator.line;
+                if (fuseOperand(binary.right, (byte) (jump + 14), (byte) (jump + 18))) {
+                    emit(0xff);
+                    emit(0xff);
+                    return current.function.chunk.count - 2;
+                }
+                compile(binary.right);
+                line = binary.operator.line;
+                return emitJump(jump);
+            }
+        }
+        compile(condition);
+        return emitJump(OpCode.POP_JUMP_IF_FALSE);
+    }
+
+    // Emits the instruction taking operand straight from a number constant
+    // or a local, when it is one, and returns whether it did.
+    private boolean fuseOperand(Expr operand, byte numberForm, byte localForm) {
+        if (operand instanceof Expr.Literal && ((Expr.Literal) operand).value instanceof Double) {
+            int constant = makeConstant(((Expr.Literal) operand).value);
+            emit(numberForm);
+            emitShort(constant);
+            return true;
+        }
+        if (operand instanceof Expr.Variable) {
+            int slot = resolveLocal(current, ((Expr.Variable) operand).name.lexeme);
+            if (slot == -1) return false;
+            emit(localForm);
+            emit(slot);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // Imports are top-level only, so a module's code is simply compiled
+        // in place the first time it is imported.
+        if (vm.imported.add(stmt.module)) {
+            for (Stmt statement : stmt.module.statements) {
+                compile(statement);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (stmt.value == null) {
+            // A bare return gives nil even in init, as in the tree-walker;
+            // VM.RETURN swaps in the instance when init runs for a call
+            // of the class.
+            emit(OpCode.NIL);
+            emit(OpCode.RETURN);
+        } else {
+            compile(stmt.value);
+            emit(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        line = stmt.name.line;
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NIL);
+        }
+        declareVariable(stmt.name);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        int exitJump = condition(stmt.condition);
+        compile(stmt.body);
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        line = expr.name.line;
+        storeVariable(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        byte fused = -1;
+        switch (expr.operator.type) {
+            case PLUS: fused = OpCode.ADD_NUMBER; break;
+            case MINUS: fused = OpCode.SUBTRACT_NUMBER; break;
+            case STAR: fused = OpCode.MULTIPLY_NUMBER; break;
+            case SLASH: fused = OpCode.DIVIDE_NUMBER; break;
+        }
+        if (fused != -1 && expr.left instanceof Expr.Variable && expr.right instanceof Expr.Literal
+                && ((Expr.Literal) expr.right).value instanceof Double) {
+            int slot = resolveLocal(current, ((Expr.Variable) expr.left).name.lexeme);
+            if (slot != -1) {
+                line = expr.operator.line;
+                // The LOCAL_ forms are 16 past the _NUMBER ones.
+                emit(fused + 16);
+                emit(slot);
+                emitShort(makeConstant(((Expr.Literal) expr.right).value));
+                return null;
+            }
+        }
+        compile(expr.left);
+        line = expr.operator.line;
+        // The _LOCAL forms follow the _NUMBER ones in the same order.
+        if (fused != -1 && fuseOperand(expr.right, fused, (byte) (fused + 4))) return null;
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+            case GREATER: emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESS: emit(OpCode.LESS); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+            case MINUS: emit(OpCode.SUBTRACT); break;
+            case PLUS: emit(OpCode.ADD); break;
+            case SLASH: emit(OpCode.DIVIDE); break;
+            case STAR: emit(OpCode.MULTIPLY); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            compileArguments(expr);
+            line = expr.paren.line;
+            emit(OpCode.INVOKE);
+            emitShort(identifier(get.name.lexeme));
+            emitCache();
+            emit(expr.arguments.size());
+            return null;
+        }
+        if (expr.callee instanceof Expr.Super) {
+            Expr.Super sup = (Expr.Super) expr.callee;
+            line = sup.keyword.line;
+            loadVariable(new Token(TokenType.THIS, "this", null, line));
+            compileArguments(expr);
+            loadVariable(sup.keyword);
+            line = expr.paren.line;
+            emit(OpCode.SUPER_INVOKE);
+            emitShort(identifier(sup.method.lexeme));
+            emit(expr.arguments.size());
+            return null;
+        }
+
+        compile(expr.callee);
+        compileArguments(expr);
+        line = expr.paren.line;
+        emit(OpCode.CALL);
+        emit(expr.arguments.size());
+        return null;
+    }
+
+    private void compileArguments(Expr.Call expr) {
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emit(OpCode.GET_PROPERTY);
+        emitShort(identifier(expr.name.lexeme));
+        emitCache();
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        line = expr.bracket.line;
+        emit(OpCode.GET_INDEX);
+        return null;
+    }
+
+    // Elements are appended one at a time, so a long literal does not
+    // need room for all of them on the stack.
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        line = expr.bracket.line;
+        emit(OpCode.LIST);
+        for (Expr element : expr.elements) {
+            compile(element);
+            emit(OpCode.APPEND);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        line = expr.brace.line;
+        emit(OpCode.MAP);
+        for (int i = 0; i < expr.keys.size(); i++) {
+            compile(expr.keys.get(i));
+            compile(expr.values.get(i));
+            line = expr.brace.line;
+            emit(OpCode.PUT);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emit(OpCode.SET_PROPERTY);
+        emitShort(identifier(expr.name.lexeme));
+        emitCache();
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        line = expr.bracket.line;
+        emit(OpCode.SET_INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        line = expr.keyword.line;
+        loadVariable(new Token(TokenType.THIS, "this", null, line));
+        loadVariable(expr.keyword);
+        emit(OpCode.GET_SUPER);
+        emitShort(identifier(expr.method.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        line = expr.keyword.line;
+        loadVariable(expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value == Boolean.TRUE) {
+            emit(OpCode.TRUE);
+        } else if (expr.value == Boolean.FALSE) {
+            emit(OpCode.FALSE);
+        } else {
+            emit(expr.value instanceof Double ? OpCode.NUMBER : OpCode.CONSTANT);
+            emitShort(makeConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        line = expr.operator.line;
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+            patchJump(elseJump);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+            emit(OpCode.POP);
+            compile(expr.right);
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG: emit(OpCode.NOT); break;
+            case MINUS: emit(OpCode.NEGATE); break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        line = expr.name.line;
+        loadVariable(expr.name);
+        return null;
+    }
+
+    private void function(Stmt.Function declaration, FunctionType type) {
+        CompiledFunction function = new CompiledFunction(declaration.name.lexeme);
+        function.arity = declaration.parameters.size();
+        current = new FunctionState(current, function, type);
+        beginScope();
+        for (Token param : declaration.parameters) {
+            declareVariable(param);
+            markInitialized();
+        }
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        FunctionState state = current;
+        endFunction();
+
+        emit(OpCode.CLOSURE);
+        emitShort(makeConstant(function));
+        for (Upvalue upvalue : state.upvalues) {
+            emit(upvalue.isLocal ? 1 : 0);
+            emit(upvalue.index);
+        }
+    }
+
+    private CompiledFunction endFunction() {
+        emitReturn();
+        CompiledFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        function.chunk.finish();
+        current = current.enclosing;
+        return function;
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emit(OpCode.GET_LOCAL);
+            emit(0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() && locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            if (locals.get(locals.size() - 1).isCaptured) {
+                emit(OpCode.CLOSE_UPVALUE);
+            } else {
+                emit(OpCode.POP);
+            }
+            locals.remove(locals.size() - 1);
+        }
+    }
+
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) return;
+        addLocal(name);
+    }
+
+    private void addLocal(Token name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            Jasper.error(name, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name.lexeme, -1));
+    }
+
+    // Locals are marked with their depth once their initializer has run.
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        current.locals.get(current.locals.size() - 1).depth = current.scopeDepth;
+    }
+
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+        emit(OpCode.DEFINE_GLOBAL);
+        emitShort(vm.globalSlot(name.lexeme));
+    }
+
+    private void loadVariable(Token name) {
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            emit(OpCode.GET_LOCAL);
+            emit(arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emit(OpCode.GET_UPVALUE);
+            emit(arg);
+        } else {
+            emit(OpCode.GET_GLOBAL);
+            emitShort(vm.globalSlot(name.lexeme));
+        }
+    }
+
+    private void storeVariable(Token name) {
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            emit(OpCode.SET_LOCAL);
+            emit(arg);
+        } else if ((arg = resolveUpvalue(current, name)) != -1) {
+            emit(OpCode.SET_UPVALUE);
+            emit(arg);
+        } else {
+            emit(OpCode.SET_GLOBAL);
+            emitShort(vm.globalSlot(name.lexeme));
+        }
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            Local local = state.locals.get(i);
+            if (local.depth != -1 && local.name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name.lexeme);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, local, true, name);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) return addUpvalue(state, upvalue, false, name);
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal, Token name) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            Jasper.error(name, "Too many closure variables in function.");
+            return 0;
+        }
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private int identifier(String name) {
+        return makeConstant(name);
+    }
+
+    private int makeConstant(Object value) {
+        int index = current.function.chunk.addConstant(value);
+        if (index > 0xffff) {
+            Jasper.error(line, "Too many constants in one chunk.");
+            return 0;
+        }
+        return index;
+    }
+
+    private void emit(int b) {
+        current.function.chunk.write(b, line);
+    }
+
+    private void emitShort(int value) {
+        emit((value >> 8) & 0xff);
+        emit(value & 0xff);
+    }
+
+    private void emitCache() {
+        int cache = current.function.chunk.addCache();
+        if (cache > 0xffff) Jasper.error(line, "Too many property accesses in one chunk.");
+        emitShort(cache);
+    }
+
+    private int emitJump(byte instruction) {
+        emit(instruction);
+        emit(0xff);
+        emit(0xff);
+        return current.function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        Chunk chunk = current.function.chunk;
+        int jump = chunk.count - offset - 2;
+        if (jump > 0xffff) {
+            Jasper.error(line, "Too much code to jump over.");
+        }
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emit(OpCode.LOOP);
+        int offset = current.function.chunk.count - loopStart + 2;
+        if (offset > 0xffff) Jasper.error(line, "Loop body too large.");
+        emitShort(offset);
+    }
+}
@@ -0,0 +1,74 @@
+package jasper;
+
+/*
+ * A string made by +, with the copying deferred. A Concat is a prefix of
+ * a StringBuilder; adding onto the Concat that ends its builder appends
+ * to the builder in place, so a loop doing s = s + piece takes linear
+ * time instead of quadratic. Adding onto an older prefix copies it into a
+ * new builder, which keeps every Concat unchanged.
+ *
+ * The flat String is made the first time the contents are needed, by
+ * stringify, ==, map keys or a native, and kept. Short results are plain
+ * Strings, since a builder would only cost more.
+ */
+final class Concat {
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat = null;
+
+    private Concat(StringBuilder builder) {
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Concat;
+    }
+
+    // left + right, for two strings as isString tells them.
+    static Object of(Object left, Object right) {
+        if (left instanceof Concat) {
+            Concat prefix = (Concat) left;
+            if (prefix.length == prefix.builder.length()) {
+                append(prefix.builder, right);
+                return new Concat(prefix.builder);
+            }
+        }
+        int length = length(left) + length(right);
+        if (length < MIN_LENGTH) return left.toString() + right.toString();
+        StringBuilder builder = new StringBuilder(length * 2);
+        append(builder, left);
+        append(builder, right);
+        return new Concat(builder);
+    }
+
+    private static int length(Object string) {
+        return string instanceof Concat ? ((Concat) string).length : ((String) string).length();
+    }
+
+    private static void append(StringBuilder builder, Object string) {
+        if (string instanceof Concat) {
+            Concat concat = (Concat) string;
+            if (concat.flat != null) {
+                builder.append(concat.flat);
+            } else {
+                builder.append(concat.builder, 0, concat.length);
+            }
+        } else {
+            builder.append((String) string);
+        }
+    }
+
+    // value, with a Concat turned into its String.
+    static Object flat(Object value) {
+        return value instanceof Concat ? value.toString() : value;
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) flat = builder.substring(0, length);
+        return flat;
+    }
+}
@@ -2,14 +2,23 @@ package jasper;
 import java.util.*;
 class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Only the global environment looks variables up by name; every local
+    // scope stores its variables in the slots Resolver assigned to them.
+    private final Map<String, Object> values;
+    private Object[] slots;
+    private int count = 0;
 
     Environment() {
         enclosing = null;
+        values = new HashMap<>();
+        slots = null;
     }
 
     Environment(Environment enclosing) {
+        if (Telemetry.counting) Telemetry.environments++;
         this.enclosing = enclosing;
+        values = null;
+        slots = new Object[4];
     }
 
     Object get(Token name) {
@@ -17,8 +26,6 @@ class Environment {
             return values.get(name.lexeme);
         }
 
-        if (enclosing != null) return enclosing.get(name);
-
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
@@ -28,16 +35,28 @@ class Environment {
             return;
         }
 
-        if (enclosing != null) {
-            enclosing.assign(name, value);
-            return;
-        }
-
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
+    Map<String, Object> globalValues() {
+        return values;
+    }
+
     void define(String name, Object value) {
-        values.put(name, value);
+        if (values != null) {
+            values.put(name, value);
+            return;
+        }
+        define(value);
+    }
+
+    // Locals are defined in the same order Resolver declared them, so the
+    // next free slot is always the one it handed out.
+    void define(Object value) {
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, count * 2);
+        }
+        slots[count++] = value;
     }
 
     Environment ancestor(int distance) {
@@ -49,11 +68,11 @@ class Environment {
         return environment;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
-}
\ No newline at end of file
+}
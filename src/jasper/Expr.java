@@ -8,12 +8,16 @@ abstract class Expr{
  R visitBinaryExpr(Binary expr);
  R visitCallExpr(Call expr);
  R visitGetExpr(Get expr);
+ R visitIndexExpr(Index expr);
+ R visitListLiteralExpr(ListLiteral expr);
  R visitSetExpr(Set expr);
+ R visitSetIndexExpr(SetIndex expr);
  R visitSuperExpr(Super expr);
  R visitThisExpr(This expr);
  R visitGroupingExpr(Grouping expr);
  R visitLiteralExpr(Literal expr);
  R visitLogicalExpr(Logical expr);
+ R visitMapLiteralExpr(MapLiteral expr);
  R visitUnaryExpr(Unary expr);
  R visitVariableExpr(Variable expr);
     }
@@ -30,6 +34,9 @@ abstract class Expr{
 
     final Token name;
     final Expr value;
+
+    int depth = -1;
+    int slot;
   }
  static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
@@ -46,6 +53,8 @@ abstract class Expr{
     final Expr left;
     final Token operator;
     final Expr right;
+
+    BinaryNode node = BinaryNode.UNINITIALIZED;
   }
  static class Call extends Expr {
     Call(Expr callee , Token paren , List<Expr> arguments) {
@@ -62,6 +71,8 @@ abstract class Expr{
     final Expr callee ;
     final Token paren ;
     final List<Expr> arguments;
+
+    InlineCache cache = new InlineCache();
   }
  static class Get extends Expr {
     Get(Expr object, Token name) {
@@ -76,10 +87,42 @@ abstract class Expr{
 
     final Expr object;
     final Token name;
+
+    InlineCache cache = new InlineCache();
+  }
+ static class Index extends Expr {
+    Index(Expr object, Token bracket, Expr index) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+  }
+ static class ListLiteral extends Expr {
+    ListLiteral(Token bracket, List<Expr> elements) {
+      this.bracket = bracket;
+      this.elements = elements;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitListLiteralExpr(this);
+    }
+
+    final Token bracket;
+    final List<Expr> elements;
   }
  static class Set extends Expr {
-    Set(Expr Object, Token name, Expr value) {
-      this.object = Object;
+    Set(Expr object, Token name, Expr value) {
+      this.object = object;
       this.name = name;
       this.value = value;
     }
@@ -92,6 +135,26 @@ abstract class Expr{
     final Expr object;
     final Token name;
     final Expr value;
+
+    InlineCache cache = new InlineCache();
+  }
+ static class SetIndex extends Expr {
+    SetIndex(Expr object, Token bracket, Expr index, Expr value) {
+      this.object = object;
+      this.bracket = bracket;
+      this.index = index;
+      this.value = value;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSetIndexExpr(this);
+    }
+
+    final Expr object;
+    final Token bracket;
+    final Expr index;
+    final Expr value;
   }
  static class Super extends Expr {
     Super(Token keyword, Token method) {
@@ -106,6 +169,9 @@ abstract class Expr{
 
     final Token keyword;
     final Token method;
+
+    int depth = -1;
+    int slot;
   }
  static class This extends Expr {
     This(Token keyword) {
@@ -118,6 +184,9 @@ abstract class Expr{
     }
 
     final Token keyword;
+
+    int depth = -1;
+    int slot;
   }
  static class Grouping extends Expr {
     Grouping(Expr expression) {
@@ -159,6 +228,22 @@ abstract class Expr{
     final Token operator;
     final Expr right;
   }
+ static class MapLiteral extends Expr {
+    MapLiteral(Token brace, List<Expr> keys, List<Expr> values) {
+      this.brace = brace;
+      this.keys = keys;
+      this.values = values;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitMapLiteralExpr(this);
+    }
+
+    final Token brace;
+    final List<Expr> keys;
+    final List<Expr> values;
+  }
  static class Unary extends Expr {
     Unary(Token operator, Expr right) {
       this.operator = operator;
@@ -184,6 +269,10 @@ abstract class Expr{
     }
 
     final Token name;
+
+    int depth = -1;
+    int slot;
+    Stmt.Var declaration;
   }
 
     abstract <R> R accept(Visitor<R> visitor);
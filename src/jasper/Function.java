@@ -6,17 +6,34 @@ public class Function implements JasperCallable{
     private final Stmt.Function declaration;
     private final Environment closure;
     private final boolean isInitializer;
+    private final boolean isMethod;
+    // Set only on bound methods, which exist only once a method is used as
+    // a value; direct calls pass the receiver to invoke() instead.
+    private final Instance receiver;
 
     Function(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+        this(declaration, closure, isInitializer, false, null);
+    }
+
+    Function(Stmt.Function declaration, Environment closure, boolean isInitializer, boolean isMethod, Instance receiver) {
         this.isInitializer = isInitializer;
         this.closure = closure;
         this.declaration = declaration;
+        this.isMethod = isMethod;
+        this.receiver = receiver;
     }
 
     Function bind(Instance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new Function(declaration, environment, isInitializer);
+        if (Telemetry.counting) Telemetry.boundMethods++;
+        return new Function(declaration, closure, isInitializer, true, instance);
+    }
+
+    Instance receiver() {
+        return receiver;
+    }
+
+    boolean isUnboundMethod() {
+        return isMethod && receiver == null;
     }
 
     @Override
@@ -31,18 +48,64 @@ public class Function implements JasperCallable{
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.parameters.size(); i++) {
-            environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
-        }
+        return invoke(interpreter, receiver, arguments);
+    }
 
+    Object invoke(Interpreter interpreter, Instance receiver, List<Object> arguments) {
+        Profiler profiler = interpreter.profiler;
+        if (profiler == null && !Telemetry.calls) return run(interpreter, receiver, arguments);
+        Telemetry.FunctionCall event = Telemetry.calls ? new Telemetry.FunctionCall() : null;
+        if (event != null) event.begin();
+        if (profiler != null) profiler.enter(declaration);
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            return returnValue.value;
+            return run(interpreter, receiver, arguments);
+        } finally {
+            if (profiler != null) profiler.exit();
+            if (event != null) event.end();
+            if (event != null && event.shouldCommit()) {
+                event.function = declaration.name.lexeme;
+                event.line = declaration.name.line;
+                event.commit();
+            }
         }
+    }
+
+    // Tail calls to other Jasper functions come back here through the
+    // interpreter's tailCallee and run in this same Java frame. Once the
+    // JIT has compiled a declaration, its bytecode runs instead of the tree.
+    private Object run(Interpreter interpreter, Instance receiver, List<Object> arguments) {
+        Function function = this;
+        while (true) {
+            Stmt.Function declaration = function.declaration;
+            JitCode code = declaration.jitCode;
+            if (code == null && interpreter.jit != null) {
+                code = interpreter.jit.countCall(declaration, function.isMethod, function.isInitializer);
+            }
 
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;
+            if (code != null) {
+                Object result = code.run(interpreter, function.closure, receiver, arguments);
+                if (result != JitRuntime.TAIL_CALL) return result;
+            } else {
+                Environment environment = new Environment(function.closure);
+                if (function.isMethod) environment.define(receiver);
+                for (int i = 0; i < declaration.parameters.size(); i++) {
+                    environment.define(declaration.parameters.get(i).lexeme, arguments.get(i));
+                }
+
+                Interpreter.Completion completion = interpreter.executeBlock(declaration.body, environment);
+                if (completion != Interpreter.Completion.RETURN) {
+                    return function.isInitializer ? receiver : null;
+                }
+                if (interpreter.tailCallee == null) return interpreter.takeReturnValue();
+            }
+
+            function = interpreter.tailCallee;
+            receiver = interpreter.tailReceiver;
+            arguments = interpreter.tailArguments;
+            interpreter.tailCallee = null;
+            interpreter.tailReceiver = null;
+            interpreter.tailArguments = null;
+            if (interpreter.profiler != null) interpreter.profiler.replace(function.declaration);
+        }
     }
 }
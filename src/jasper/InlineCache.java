@@ -0,0 +1,104 @@
+package jasper;
+
+/*
+ * Per-site cache for property access, attached to Expr.Get, Expr.Set and
+ * Expr.Call. Entries are keyed on the receiver's Shape, which identifies
+ * both its class and its exact set of fields, so a field that later
+ * shadows a method shows up as a different shape and misses. A site
+ * holds up to MAX_ENTRIES shapes and stops caching once it sees more.
+ */
+final class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+    // Set by --ic-stats; hits and misses are only counted then, keeping
+    // cached accesses free of shared writes otherwise.
+    static boolean counting = false;
+    static long hits = 0;
+    static long misses = 0;
+
+    private static final class Entry {
+        final Shape shape;
+        // Field slot, or -1 when the name resolved to a method.
+        final int slot;
+        final Function method;
+        // For writes that add a field: the shape the instance moves to.
+        final Shape transition;
+        final Entry next;
+
+        Entry(Shape shape, int slot, Function method, Shape transition, Entry next) {
+            this.shape = shape;
+            this.slot = slot;
+            this.method = method;
+            this.transition = transition;
+            this.next = next;
+        }
+    }
+
+    private Entry entries = null;
+    private int count = 0;
+
+    private Entry find(Shape shape) {
+        for (Entry entry = entries; entry != null; entry = entry.next) {
+            if (entry.shape == shape) {
+                if (counting) hits++;
+                return entry;
+            }
+        }
+        if (counting) misses++;
+        return null;
+    }
+
+    private void add(Shape shape, int slot, Function method, Shape transition) {
+        if (count == MAX_ENTRIES) return;
+        entries = new Entry(shape, slot, method, transition, entries);
+        count++;
+    }
+
+    Object read(Instance instance, Token name) {
+        Object value = lookup(instance, name);
+        if (value instanceof Function && ((Function) value).isUnboundMethod()) {
+            return ((Function) value).bind(instance);
+        }
+        return value;
+    }
+
+    // Like read, but returns methods unbound so a call site can pass the
+    // receiver straight to Function.invoke. Field values are never
+    // unbound methods, so the two cases cannot be confused.
+    Object lookup(Instance instance, Token name) {
+        Entry entry = find(instance.shape);
+        int slot;
+        Function method;
+        if (entry != null) {
+            slot = entry.slot;
+            method = entry.method;
+        } else {
+            slot = instance.shape.slotOf(name.lexeme);
+            method = slot == -1 ? instance.c.findMethod(name.lexeme) : null;
+            if (slot == -1 && method == null) {
+                throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+            }
+            add(instance.shape, slot, method, null);
+        }
+        if (slot != -1) return instance.fields[slot];
+        return method;
+    }
+
+    void write(Instance instance, Token name, Object value) {
+        Entry entry = find(instance.shape);
+        if (entry == null) {
+            Shape before = instance.shape;
+            instance.set(name, value);
+            Shape transition = instance.shape == before ? null : instance.shape;
+            add(before, instance.shape.slotOf(name.lexeme), null, transition);
+            return;
+        }
+        if (entry.transition != null) instance.moveTo(entry.transition);
+        instance.fields[entry.slot] = value;
+    }
+
+    static String report() {
+        long total = hits + misses;
+        double rate = total == 0 ? 0 : 100.0 * hits / total;
+        return String.format("inline caches: %d hits, %d misses, %.1f%% hit rate", hits, misses, rate);
+    }
+}
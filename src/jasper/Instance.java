@@ -1,25 +1,45 @@
 package jasper;
 import java.util.*;
 public class Instance {
-    private final Map<String, Object> fields= new HashMap<>();
-    private JasperClass c;
+    // Read and updated in place by InlineCache.
+    Shape shape;
+    Object[] fields;
+    final JasperClass c;
     Instance(JasperClass c){
+        if (Telemetry.counting) Telemetry.instances++;
         this.c = c;
+        this.shape = c.rootShape;
+        this.fields = new Object[c.instanceSize];
     }
     @Override
     public String toString(){
         return c.name + "Instance";
     }
     Object get(Token name){
-        if(fields.containsKey(name.lexeme)){
-            return fields.get(name.lexeme);
+        int slot = shape.slotOf(name.lexeme);
+        if(slot != -1){
+            return fields[slot];
         }
         Function method = c.getMethod(this,name.lexeme);
         if(method!=null)return method;
-        throw  new RuntimeError(name, "Undefined property '"+ name +"'. ");
+        throw  new RuntimeError(name, "Undefined property '"+ name.lexeme +"'.");
     }
     void set(Token name , Object value){
-        fields.put(name.lexeme,value);
+        int slot = shape.slotOf(name.lexeme);
+        if(slot == -1){
+            moveTo(shape.withField(name.lexeme));
+            slot = shape.size - 1;
+        }
+        fields[slot] = value;
+    }
+    // Switches to a shape with exactly one more field.
+    void moveTo(Shape next){
+        shape = next;
+        if(next.size > fields.length){
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+            // Later instances of the class start out this large.
+            c.instanceSize = Math.max(c.instanceSize, fields.length);
+        }
     }
 
 }
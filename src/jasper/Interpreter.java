@@ -1,11 +1,31 @@
 package jasper;
 import java.io.*;
 import java.util.*;
+import java.util.function.Consumer;
+
+public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Interpreter.Completion> {
+    // How a statement finished. RETURN unwinds block by block back to
+    // Function.invoke, which collects the value with takeReturnValue().
+    enum Completion {
+        NORMAL,
+        RETURN
+    }
 
-public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // Modules that have already run.
+    private final Set<Module> imported = new HashSet<>();
+    private Object returnValue = null;
+    // Set along with RETURN when the returned call should reuse the frame.
+    Function tailCallee = null;
+    Instance tailReceiver = null;
+    List<Object> tailArguments = null;
+    // Null when running without the JIT tier.
+    Jit jit = null;
+    // Null unless running with --profile.
+    Profiler profiler = null;
+    // Null unless running with --line-stats.
+    LineStats lineStats = null;
 
     Interpreter(){
         globals.define("clock", new JasperCallable() {
@@ -35,7 +55,7 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
                     System.out.println();
                     return  null;
                 }
-                String format = (String) arguments.getFirst();
+                String format = (String) Concat.flat(arguments.getFirst());
                 Object[] args = arguments.subList(1, arguments.size()).toArray();
                 System.out.printf(format, args);
                 return null;
@@ -64,10 +84,10 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                if (arguments.size() != 1 || !(arguments.get(0) instanceof String)) {
+                if (arguments.size() != 1 || !Concat.isString(arguments.get(0))) {
                     throw new RuntimeError(null, "file_read expects a single string argument (file path).");
                 }
-                String filePath = (String) arguments.get(0);
+                String filePath = arguments.get(0).toString();
                 try {
                     StringBuilder content = new StringBuilder();
                     BufferedReader reader = new BufferedReader(new FileReader(filePath));
@@ -90,11 +110,11 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                if (arguments.size() != 2 || !(arguments.get(0) instanceof String) || !(arguments.get(1) instanceof String)) {
+                if (arguments.size() != 2 || !Concat.isString(arguments.get(0)) || !Concat.isString(arguments.get(1))) {
                     throw new RuntimeError(null, "file_write expects two string arguments (file path and content).");
                 }
-                String filePath = (String) arguments.get(0);
-                String content = (String) arguments.get(1);
+                String filePath = arguments.get(0).toString();
+                String content = arguments.get(1).toString();
                 try {
                     BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
                     writer.write(content);
@@ -105,9 +125,93 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
                 }
             }
         });
+
+        globals.define("append", new JasperCallable() {
+            @Override
+            public int arity() { return 2; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof JasperList)) {
+                    throw new RuntimeError(null, "append expects a list as its first argument.");
+                }
+                ((JasperList) arguments.get(0)).add(arguments.get(1));
+                return null;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("has", new JasperCallable() {
+            @Override
+            public int arity() { return 2; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object key = Concat.flat(arguments.get(1));
+                return key != null && map("has", arguments).has(key);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("remove", new JasperCallable() {
+            @Override
+            public int arity() { return 2; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object key = Concat.flat(arguments.get(1));
+                return key != null && map("remove", arguments).remove(key);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        // cursor(map) walks a map without copying it: next(cursor) moves to
+        // each entry in turn, which cursor.key and cursor.value then read.
+        globals.define("cursor", new JasperCallable() {
+            @Override
+            public int arity() { return 1; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new JasperMap.Cursor(map("cursor", arguments));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("next", new JasperCallable() {
+            @Override
+            public int arity() { return 1; }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                if (!(arguments.get(0) instanceof JasperMap.Cursor)) {
+                    throw new RuntimeError(null, "next expects a map cursor.");
+                }
+                return ((JasperMap.Cursor) arguments.get(0)).next();
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+    }
+
+    private static JasperMap map(String function, List<Object> arguments) {
+        if (!(arguments.get(0) instanceof JasperMap)) {
+            throw new RuntimeError(null, function + " expects a map as its first argument.");
+        }
+        return (JasperMap) arguments.get(0);
     }
 
     void interpret(List<Stmt> statements) {
+        if (lineStats != null) lineStats.register(statements);
         try {
             for (Stmt statement : statements) {
                 execute(statement);
@@ -117,39 +221,42 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
         }
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        if (lineStats != null) lineStats.hit(stmt.line);
+        return stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
-    }
-
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                if (execute(statement) == Completion.RETURN) return Completion.RETURN;
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
     private Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment));
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if(stmt.superclass!=null){
             superclass = evaluate(stmt.superclass);
@@ -166,7 +273,7 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
         Map<String, Function> methods = new HashMap<>();
 
         for (Stmt.Function method : stmt.methods) {
-            Function function = new Function(method, environment, method.name.lexeme.equals("init"));
+            Function function = new Function(method, environment, method.name.lexeme.equals("init"), true, null);
             methods.put(method.name.lexeme, function);
         }
 
@@ -175,73 +282,90 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
             environment = environment.enclosing;
         }
         environment.assign(stmt.name, c);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         Function function = new Function(stmt, environment, false);
         environment.define(stmt.name.lexeme, function);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.then);
+            return execute(stmt.then);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
+    }
+
+    @Override
+    public Completion visitImportStmt(Stmt.Import stmt) {
+        if (imported.add(stmt.module)) {
+            for (Stmt statement : stmt.module.statements) {
+                execute(statement);
+            }
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
         System.out.println(stringify(value));
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if (stmt.value != null) value = evaluate(stmt.value);
+        if (stmt.tailCall) {
+            value = evaluateCall((Expr.Call) stmt.value, true);
+        } else if (stmt.value != null) {
+            value = evaluate(stmt.value);
+        }
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
         environment.define(stmt.name.lexeme, value);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            if (execute(stmt.body) == Completion.RETURN) return Completion.RETURN;
+            if (jit != null && ++stmt.backEdges == Jit.LOOP_THRESHOLD && stmt.function != null) {
+                jit.hotLoop(stmt.function);
+            }
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth != -1) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -254,41 +378,49 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        Object result = expr.node.execute(expr, left, right);
+        if (Telemetry.counting && result instanceof Double) Telemetry.boxedDoubles++;
+        return result;
+    }
+
+    // Unspecialized semantics of every binary operator; BinaryNode.Generic
+    // falls back to this once a site has seen mixed operand types.
+    static Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left > (double)right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left >= (double)right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left < (double)right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left <= (double)right;
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left - (double)right;
             case PLUS:
                 if (left instanceof Double && right instanceof Double) {
                     return (double)left + (double)right;
                 }
 
-                if (left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
+                if (Concat.isString(left) && Concat.isString(right)) {
+                    return Concat.of(left, right);
                 }
 
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
+                throw new RuntimeError(operator, "Operands must be two numbers or two strings.");
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left / (double)right;
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double)left * (double)right;
         }
 
@@ -298,13 +430,44 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return evaluateCall(expr, false);
+    }
+
+    // With isTail set, a call to a Jasper function is not made here but
+    // left in tailCallee for the enclosing Function.invoke, which reuses
+    // its frame.
+    private Object evaluateCall(Expr.Call expr, boolean isTail) {
+        Object callee;
+        Instance receiver = null;
+        if (expr.callee instanceof Expr.Get) {
+            // Method calls look the method up through the call site's own
+            // cache and pass the receiver along instead of binding.
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            if (!(object instanceof Instance)) {
+                throw new RuntimeError(get.name, "Only instances have properties.");
+            }
+            callee = expr.cache.lookup((Instance) object, get.name);
+            receiver = (Instance) object;
+        } else if (expr.callee instanceof Expr.Super) {
+            Expr.Super sup = (Expr.Super) expr.callee;
+            callee = findSuperMethod(sup);
+            receiver = (Instance) environment.getAt(sup.depth - 1, 0);
+        } else {
+            callee = evaluate(expr.callee);
+        }
 
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
 
+        return call(expr, callee, receiver, arguments, isTail);
+    }
+
+    // Shared with compiled code, which evaluates the callee and arguments
+    // itself.
+    Object call(Expr.Call expr, Object callee, Instance receiver, List<Object> arguments, boolean isTail) {
         if (!(callee instanceof JasperCallable)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
@@ -314,17 +477,86 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
             throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
 
-        return function.call(this, arguments);
+        if (function instanceof Function) {
+            Function fn = (Function) function;
+            if (!fn.isUnboundMethod()) receiver = fn.receiver();
+            if (isTail) {
+                tailCallee = fn;
+                tailReceiver = receiver;
+                tailArguments = arguments;
+                return null;
+            }
+            return fn.invoke(this, receiver, arguments);
+        }
+        try {
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            // Natives have no token of their own; blame the call.
+            if (error.line != 0) throw error;
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
         Object object = evaluate(expr.object);
         if (object instanceof Instance) {
-            return ((Instance) object).get(expr.name);
+            return expr.cache.read((Instance) object, expr.name);
+        }
+
+        return property(object, expr.name.lexeme, expr.name);
+    }
+
+    // Properties of the built-in types: the length of lists and maps, and
+    // the entry a map cursor is on. token is only used for errors.
+    static Object property(Object object, String name, Token token) {
+        if (object instanceof JasperList) {
+            if (name.equals("length")) return (double) ((JasperList) object).size();
+        } else if (object instanceof JasperMap) {
+            if (name.equals("length")) return (double) ((JasperMap) object).size();
+        } else if (object instanceof JasperMap.Cursor) {
+            JasperMap.Cursor cursor = (JasperMap.Cursor) object;
+            if (name.equals("key")) return cursor.key();
+            if (name.equals("value")) return cursor.value();
+        } else {
+            throw new RuntimeError(token, "Only instances have properties.");
+        }
+        throw new RuntimeError(token, "Undefined property '" + name + "'.");
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        return index(object, index, expr.bracket);
+    }
+
+    static Object index(Object object, Object index, Token bracket) {
+        if (object instanceof JasperList) {
+            JasperList list = (JasperList) object;
+            if (!list.inRange(index)) throw new RuntimeError(bracket, list.indexError(index));
+            return list.get(index);
         }
+        if (object instanceof JasperMap) {
+            // Missing keys read as nil.
+            return ((JasperMap) object).get(checkKey(index, bracket));
+        }
+        throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+    }
+
+    // Keys are compared by value, so strings are flattened first.
+    private static Object checkKey(Object key, Token token) {
+        if (key == null) throw new RuntimeError(token, "Map keys cannot be nil.");
+        return Concat.flat(key);
+    }
 
-        throw new RuntimeError(expr.name, "Only instances have properties.");
+    @Override
+    public Object visitListLiteralExpr(Expr.ListLiteral expr) {
+        JasperList list = new JasperList(expr.elements.size());
+        for (Expr element : expr.elements) {
+            list.add(evaluate(element));
+        }
+        return list;
     }
 
     @Override
@@ -350,6 +582,16 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
         return evaluate(expr.right);
     }
 
+    @Override
+    public Object visitMapLiteralExpr(Expr.MapLiteral expr) {
+        JasperMap map = new JasperMap(expr.keys.size());
+        for (int i = 0; i < expr.keys.size(); i++) {
+            Object key = checkKey(evaluate(expr.keys.get(i)), expr.brace);
+            map.put(key, evaluate(expr.values.get(i)));
+        }
+        return map;
+    }
+
     @Override
     public Object visitSetExpr(Expr.Set expr) {
         Object object = evaluate(expr.object);
@@ -359,26 +601,54 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
         }
 
         Object value = evaluate(expr.value);
-        ((Instance)object).set(expr.name, value);
+        expr.cache.write((Instance)object, expr.name, value);
+        return value;
+    }
+
+    @Override
+    public Object visitSetIndexExpr(Expr.SetIndex expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        Object value = evaluate(expr.value);
+        return setIndex(object, index, value, expr.bracket);
+    }
+
+    static Object setIndex(Object object, Object index, Object value, Token bracket) {
+        if (object instanceof JasperList) {
+            JasperList list = (JasperList) object;
+            if (!list.inRange(index)) throw new RuntimeError(bracket, list.indexError(index));
+            list.set(index, value);
+        } else if (object instanceof JasperMap) {
+            ((JasperMap) object).put(checkKey(index, bracket), value);
+        } else {
+            throw new RuntimeError(bracket, "Only lists and maps can be indexed.");
+        }
         return value;
     }
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        JasperClass supercls = (JasperClass)environment.getAt(distance, "super");
-        Instance obj = (Instance) environment.getAt(distance-1, "this");
-        Function method = supercls.getMethod(obj, expr.method.lexeme);
+        // "this" is slot 0 of the method frame just inside "super".
+        Instance obj = (Instance) environment.getAt(expr.depth-1, 0);
+        return findSuperMethod(expr).bind(obj);
+    }
+
+    private Function findSuperMethod(Expr.Super expr) {
+        return findSuperMethod((JasperClass)environment.getAt(expr.depth, expr.slot), expr);
+    }
+
+    static Function findSuperMethod(JasperClass supercls, Expr.Super expr) {
+        Function method = supercls.findMethod(expr.method.lexeme);
         if (method == null) {
             throw new RuntimeError(expr.method,
                     "Undefined property '" + expr.method.lexeme + "'.");
         }
-        return method.bind(obj);
+        return method;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
@@ -399,43 +669,44 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth != -1) {
+            return environment.getAt(depth, slot);
         } else {
             return globals.get(name);
         }
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    static void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    private static void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         // nil is only equal to nil.
         if (a == null && b == null) return true;
         if (a == null) return false;
+        if (a instanceof Concat) a = a.toString();
+        if (b instanceof Concat) b = b.toString();
 
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    static String stringify(Object object) {
         if (object == null) return "nil";
 
         // Hack. Work around Java adding ".0" to integer-valued doubles.
@@ -449,4 +720,23 @@ public class Interpreter implements  Expr.Visitor<Object> , Stmt.Visitor<Void> {
 
         return object.toString();
     }
+
+    // Containers being stringified on this thread.
+    private static final ThreadLocal<Set<Object>> printing =
+            ThreadLocal.withInitial(() -> Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    // Stringifies a container whose contents appends its elements, each
+    // through stringify. A container met again inside itself prints as
+    // cycle instead of recursing until the stack overflows.
+    static String stringify(Object container, String cycle, Consumer<StringBuilder> contents) {
+        Set<Object> open = printing.get();
+        if (!open.add(container)) return cycle;
+        try {
+            StringBuilder text = new StringBuilder();
+            contents.accept(text);
+            return text.toString();
+        } finally {
+            open.remove(container);
+        }
+    }
 }
@@ -2,25 +2,54 @@ package jasper;
 import java.io.IOException;
 import java.io.*;
 import java.util.*;
-import java.nio.charset.Charset;
+import java.util.function.Consumer;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 
 import static jasper.TokenType.EOF;
 
 public class Jasper {
     private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
+    private static VM vm = null;
+    private static boolean optimize = false;
+    private static boolean reportOptimizer = false;
+    // jasperc mode: write the compiled program next to the script instead of running it.
+    private static boolean aotCompile = false;
+    private static boolean useCache = true;
+    private static boolean pipeline = false;
+    private static ModuleLoader modules;
+    // Benchmark mode: the program or directory of programs to measure.
+    private static Path bench = null;
+    private static Path baseline = null;
+    private static boolean saveBaseline = false;
+    // Kept for the fresh interpreters of benchmarks.
+    private static int jitThreshold = Jit.DEFAULT_THRESHOLD;
+    private static boolean jitLog = false;
+    private static int benchWarmup = 5;
+    private static int benchIterations = 10;
+    // The script being run, which imports are relative to; null for the prompt.
+    private static Path script = null;
+    // Also set from the scanning and parsing threads of a pipelined run.
+    static volatile boolean hadError = false;
     static boolean hadRuntimeError = false;
+    // Set while compileModule runs on this thread.
+    private static final ThreadLocal<List<String>> moduleErrors = new ThreadLocal<>();
     public static void main(String[] args) throws IOException {
+        args = parseOptions(args);
+        Telemetry.install();
+        if (bench != null) {
+            runBenchmarks();
+            return;
+        }
         if(args.length > 2){
             System.out.println("Usage: Jasper [script]");
             return;
         }
         if(args.length > 1){
             String[] file = (args[1].split("\\."));
-            if(!file[1].equals("jasp")) {
-                System.out.println("Filename should end with .jasp");
+            if(!file[1].equals("jasp") && !file[1].equals("jar")) {
+                System.out.println("Filename should end with .jasp or .jar");
                 return;
             }
             runFile(args[1]);
@@ -32,12 +61,165 @@ public class Jasper {
             runPrompt();
         }
     }
+    // Strips the leading --options, leaving the positional arguments.
+    private static String[] parseOptions(String[] args) {
+        boolean jit = true;
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--engine=vm")) {
+                vm = new VM(interpreter);
+            } else if (arg.equals("--engine=tree")) {
+                vm = null;
+            } else if (arg.equals("--no-cache")) {
+                useCache = false;
+            } else if (arg.equals("--pipeline")) {
+                pipeline = true;
+            } else if (arg.startsWith("--bench=")) {
+                bench = Paths.get(arg.substring("--bench=".length()));
+            } else if (arg.startsWith("--bench-warmup=")) {
+                benchWarmup = Integer.parseInt(arg.substring("--bench-warmup=".length()));
+                if (benchWarmup < 0) {
+                    System.out.println("--bench-warmup must be at least 0.");
+                    System.exit(64);
+                }
+            } else if (arg.startsWith("--bench-iterations=")) {
+                benchIterations = Integer.parseInt(arg.substring("--bench-iterations=".length()));
+                if (benchIterations < 1) {
+                    System.out.println("--bench-iterations must be at least 1.");
+                    System.exit(64);
+                }
+            } else if (arg.startsWith("--baseline=")) {
+                baseline = Paths.get(arg.substring("--baseline=".length()));
+            } else if (arg.equals("--save-baseline")) {
+                saveBaseline = true;
+            } else if (arg.equals("--compile")) {
+                aotCompile = true;
+            } else if (arg.equals("--optimize")) {
+                optimize = true;
+            } else if (arg.equals("--optimize=verbose")) {
+                optimize = true;
+                reportOptimizer = true;
+            } else if (arg.equals("--no-jit")) {
+                jit = false;
+            } else if (arg.equals("--jit-log")) {
+                jitLog = true;
+            } else if (arg.startsWith("--jit-threshold=")) {
+                jitThreshold = Integer.parseInt(arg.substring("--jit-threshold=".length()));
+            } else if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+                Path output = Paths.get(arg.equals("--profile") ? "profile.collapsed" : arg.substring("--profile=".length()));
+                Profiler profiler = new Profiler();
+                interpreter.profiler = profiler;
+                profiler.start();
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> profiler.report(output)));
+            } else if (arg.equals("--line-stats") || arg.startsWith("--line-stats=")) {
+                String output = arg.equals("--line-stats") ? null : arg.substring("--line-stats=".length());
+                LineStats lineStats = new LineStats();
+                interpreter.lineStats = lineStats;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> reportLineStats(lineStats, output)));
+            } else if (arg.equals("--ic-stats")) {
+                InlineCache.counting = true;
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println(InlineCache.report())));
+            } else if (arg.startsWith("--")) {
+                System.out.println("Unknown option " + arg);
+                System.exit(64);
+            } else {
+                rest.add(arg);
+            }
+        }
+        // Compiled functions do not go through Interpreter.execute, so line
+        // counts need every statement interpreted.
+        interpreter.jit = jit && interpreter.lineStats == null ? new Jit(jitThreshold, jitLog) : null;
+        modules = new ModuleLoader(useCache, optimize);
+        if (interpreter.profiler != null && vm != null) {
+            System.err.println("--profile only sees functions run by the tree-walking interpreter, not --engine=vm.");
+        }
+        if (interpreter.lineStats != null && vm != null) {
+            System.err.println("--line-stats only counts statements run by the tree-walking interpreter, not --engine=vm.");
+        }
+        return rest.toArray(new String[0]);
+    }
+    // Writes the report to output, or to stderr when output is null.
+    private static void reportLineStats(LineStats lineStats, String output) {
+        if (output == null) {
+            lineStats.report(script, System.err);
+            return;
+        }
+        try (PrintStream out = new PrintStream(Files.newOutputStream(Paths.get(output)))) {
+            lineStats.report(script, out);
+        } catch (IOException e) {
+            System.err.println("[line-stats] cannot write " + output + ": " + e.getMessage());
+        }
+    }
+
     private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        script = Paths.get(path);
+        if (path.endsWith(".jar")) {
+            execute(Aot.load(Paths.get(path), interpreter.jit != null));
+            if (hadRuntimeError) System.exit(70);
+            return;
+        }
+        Source source = Source.map(Paths.get(path));
+        if (aotCompile) {
+            List<Stmt> statements = compile(source);
+            if (statements != null) {
+                Aot.compile(statements, Paths.get(path.substring(0, path.length() - ".jasp".length()) + ".jar"));
+            }
+        } else if (useCache) {
+            Path cache = ProgramCache.pathFor(path);
+            byte[] key = ProgramCache.key(source.bytes(), optimize);
+            List<Stmt> statements = ProgramCache.load(cache, key);
+            if (statements != null) {
+                execute(statements);
+            } else if (pipeline) {
+                statements = pipeline(source);
+                if (statements != null) ProgramCache.store(cache, key, statements);
+            } else {
+                statements = compile(source);
+                if (statements != null) {
+                    ProgramCache.store(cache, key, statements);
+                    execute(statements);
+                }
+            }
+        } else if (pipeline) {
+            pipeline(source);
+        } else {
+            run(source);
+        }
         if(hadError)System.exit(64);
         if (hadRuntimeError) System.exit(70);
     }
+    // Exits with status 1 when a benchmark fails or regresses against the
+    // baseline, by default baseline.txt next to the benchmarks.
+    private static void runBenchmarks() throws IOException {
+        if (baseline == null) {
+            Path directory = Files.isDirectory(bench) ? bench : bench.toAbsolutePath().getParent();
+            baseline = directory.resolve("baseline.txt");
+        }
+        BenchmarkRunner runner = new BenchmarkRunner(Jasper::compile, Jasper::freshExecutor, benchWarmup, benchIterations);
+        if (!runner.run(bench, baseline, saveBaseline)) System.exit(1);
+    }
+
+    // Runs programs like execute, but on a new interpreter, VM and module
+    // loader set up like the ones the options made, so each benchmark
+    // starts from no globals, imports or compiled code.
+    private static Consumer<List<Stmt>> freshExecutor() {
+        Interpreter fresh = new Interpreter();
+        fresh.profiler = interpreter.profiler;
+        fresh.lineStats = interpreter.lineStats;
+        fresh.jit = interpreter.jit == null ? null : new Jit(jitThreshold, jitLog);
+        VM freshVm = vm == null ? null : new VM(fresh);
+        ModuleLoader freshModules = new ModuleLoader(useCache, optimize);
+        return statements -> {
+            freshModules.link(statements, script);
+            if (hadError) return;
+            if (freshVm != null) {
+                freshVm.interpret(statements);
+            } else {
+                fresh.interpret(statements);
+            }
+        };
+    }
+
     private static void runPrompt() throws IOException {
         InputStreamReader input = new InputStreamReader(System.in);
         BufferedReader reader = new BufferedReader(input);
@@ -51,18 +233,87 @@ public class Jasper {
     }
 
     private static void run(String source) {
-        Scanner sc = new Scanner(source);
-        List<Token> tokens = sc.scanTokens();
-//        for(Token t : tokens){
-//            System.out.println(t.lexeme);
-//        }
-        Parser parser = new Parser(tokens);
+        run(Source.of(source));
+    }
+
+    private static void run(Source source) {
+        List<Stmt> statements = compile(source);
+        if (statements != null) execute(statements);
+    }
+
+    // Compiles an imported module on a loader thread. Its errors go to
+    // errors instead of stdout, apart from the program's and those of
+    // modules compiling alongside. Returns null when there were any.
+    static List<Stmt> compileModule(Source source, List<String> errors) {
+        moduleErrors.set(errors);
+        try {
+            return compile(source);
+        } finally {
+            moduleErrors.remove();
+        }
+    }
+
+    private static boolean failed() {
+        List<String> errors = moduleErrors.get();
+        return errors != null ? !errors.isEmpty() : hadError;
+    }
+
+    // The front end: scans, parses, resolves and optionally optimizes.
+    // Returns null after a compile error.
+    static List<Stmt> compile(Source source) {
+        // Scanning happens as the parser asks for tokens, so it is timed
+        // as part of parsing.
+        Telemetry.CompilePhase phase = Telemetry.phase("parse");
+        Parser parser = new Parser(new Scanner(source));
         List<Stmt> statements = parser.parse();
-        if(hadError)return;
-        Resolver resolver = new Resolver(interpreter);
+        Telemetry.end(phase);
+        if(failed())return null;
+        phase = Telemetry.phase("resolve");
+        Resolver resolver = new Resolver();
         resolver.resolve(statements);
-        if(hadError)return;
-        interpreter.interpret(statements);
+        Telemetry.end(phase);
+        if(failed())return null;
+        if (optimize) {
+            phase = Telemetry.phase("optimize");
+            Optimizer optimizer = new Optimizer();
+            statements = optimizer.optimize(statements);
+            Telemetry.end(phase);
+            if (reportOptimizer) {
+                System.err.println("[optimizer] removed " + optimizer.removed() + " nodes");
+            }
+        }
+        return statements;
+    }
+
+    // Runs each top-level declaration as soon as it has been parsed, see
+    // Pipeline. Returns the whole program, or null after a compile error.
+    private static List<Stmt> pipeline(Source source) {
+        Resolver resolver = new Resolver();
+        Optimizer optimizer = optimize ? new Optimizer() : null;
+        List<Stmt> program = new ArrayList<>();
+        Pipeline.run(source, statement -> {
+            if (hadError || hadRuntimeError) return;
+            List<Stmt> statements = List.of(statement);
+            resolver.resolve(statements);
+            if (hadError) return;
+            if (optimizer != null) statements = optimizer.optimize(statements);
+            program.addAll(statements);
+            execute(statements);
+        });
+        if (optimizer != null && reportOptimizer) {
+            System.err.println("[optimizer] removed " + optimizer.removed() + " nodes");
+        }
+        return hadError ? null : program;
+    }
+
+    private static void execute(List<Stmt> statements) {
+        modules.link(statements, script);
+        if (hadError) return;
+        if (vm != null) {
+            vm.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
 
     }
     static void error(int line, String message){
@@ -77,11 +328,18 @@ public class Jasper {
     }
 
     private static void report(int line, String where, String message){
-        System.out.println("[line "+ line + "] Error "+ where + ": "+message);
+        String error = "[line "+ line + "] Error "+ where + ": "+message;
+        List<String> errors = moduleErrors.get();
+        if (errors != null) {
+            errors.add(error);
+            return;
+        }
+        System.out.println(error);
         hadError = true;
     }
     static void runtimeError(RuntimeError e){
-        System.err.println(e.getMessage() + "\n[line" + e.token.line + "]");
+        Telemetry.runtimeError(e);
+        System.err.println(e.getMessage() + "\n[line" + e.line + "]");
         hadRuntimeError= true;
     }
 }
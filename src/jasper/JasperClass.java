@@ -4,6 +4,10 @@ public class JasperClass implements JasperCallable{
     final String name;
     final JasperClass superclass;
     private final Map<String, Function> methods;
+    // Every instance of this class starts from rootShape, so a shape also
+    // identifies the instance's class.
+    final Shape rootShape = new Shape();
+    int instanceSize = 0;
     JasperClass(String name, JasperClass superclass, Map<String, Function> methods){
         this.name = name;
         this.superclass = superclass;
@@ -26,16 +30,23 @@ public class JasperClass implements JasperCallable{
         Instance instance = new Instance(this);
         Function init = methods.get("init");
         if(init != null){
-            init.bind(instance).call(interpreter,arguments);
+            init.invoke(interpreter, instance, arguments);
         }
         return instance;
     }
     Function getMethod(Instance instance, String name){
+        Function method = findMethod(name);
+        if(method != null){
+            return method.bind(instance);
+        }
+        return  null;
+    }
+    Function findMethod(String name){
         if(methods.containsKey(name)){
-            return methods.get(name).bind(instance);
+            return methods.get(name);
         }
         if(superclass != null){
-            return superclass.getMethod(instance, name);
+            return superclass.findMethod(name);
         }
         return  null;
     }
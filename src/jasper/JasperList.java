@@ -0,0 +1,85 @@
+package jasper;
+
+import java.util.Arrays;
+
+/*
+ * The list type. Elements stay unboxed in a double[] for as long as the
+ * list only holds numbers, and move to an Object[] for good the first time
+ * anything else is stored in it. Lists are compared by identity, like
+ * instances.
+ */
+final class JasperList {
+    // Exactly one of these holds the elements.
+    private double[] numbers;
+    private Object[] values = null;
+    private int size = 0;
+
+    JasperList(int capacity) {
+        numbers = new double[Math.max(capacity, 4)];
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Whether index is a number naming an element; get and set expect it.
+    boolean inRange(Object index) {
+        if (!(index instanceof Double)) return false;
+        double value = (double) index;
+        return value >= 0 && value < size && value == (int) value;
+    }
+
+    // Why index is not inRange.
+    String indexError(Object index) {
+        if (!(index instanceof Double)) return "List index must be a number.";
+        double value = (double) index;
+        if (value != Math.floor(value)) return "List index must be an integer.";
+        return "List index " + Interpreter.stringify(index) + " is out of range for length " + size + ".";
+    }
+
+    Object get(Object index) {
+        int i = (int) (double) index;
+        return values == null ? (Object) numbers[i] : values[i];
+    }
+
+    void set(Object index, Object value) {
+        store((int) (double) index, value);
+    }
+
+    void add(Object value) {
+        int capacity = values == null ? numbers.length : values.length;
+        if (size == capacity) {
+            if (values == null) {
+                numbers = Arrays.copyOf(numbers, capacity * 2);
+            } else {
+                values = Arrays.copyOf(values, capacity * 2);
+            }
+        }
+        store(size++, value);
+    }
+
+    private void store(int i, Object value) {
+        if (values == null) {
+            if (value instanceof Double) {
+                numbers[i] = (double) value;
+                return;
+            }
+            values = new Object[numbers.length];
+            for (int j = 0; j < size; j++) values[j] = numbers[j];
+            numbers = null;
+        }
+        values[i] = value;
+    }
+
+    @Override
+    public String toString() {
+        return Interpreter.stringify(this, "[...]", text -> {
+            text.append('[');
+            for (int i = 0; i < size; i++) {
+                if (i > 0) text.append(", ");
+                text.append(Interpreter.stringify(values == null ? (Object) numbers[i] : values[i]));
+            }
+            text.append(']');
+        });
+    }
+}
@@ -0,0 +1,185 @@
+package jasper;
+
+/*
+ * The map type: an open-addressing table with linear probing, keeping
+ * keys, values and key hashes in parallel arrays so no entry objects are
+ * allocated. The stored hash is compared before equals, and keys are
+ * compared by reference first, which settles most string lookups without
+ * looking at the characters. Removal shifts the following entries back
+ * instead of leaving tombstones.
+ *
+ * Keys are any value but nil and are compared like ==. Iteration is in
+ * table order, through a Cursor over the slots.
+ */
+final class JasperMap {
+    private static final int MIN_CAPACITY = 8;
+
+    // A null key marks an empty slot.
+    private Object[] keys;
+    private Object[] values;
+    private int[] hashes;
+    private int size = 0;
+    // 32 - log2(capacity): a hash's home slot is its top bits.
+    private int shift;
+    // Bumped whenever entries move, which invalidates cursors.
+    private int layout = 0;
+
+    JasperMap(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 < expected * 4) capacity *= 2;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        shift = Integer.numberOfLeadingZeros(capacity) + 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Fibonacci hashing spreads the low-entropy hashes of integral Doubles.
+    private static int hash(Object key) {
+        return key.hashCode() * 0x9e3779b9;
+    }
+
+    // The slot holding key, or the complement of the empty slot where it
+    // would go.
+    private int find(Object key, int hash) {
+        int mask = keys.length - 1;
+        for (int slot = hash >>> shift; ; slot = (slot + 1) & mask) {
+            Object candidate = keys[slot];
+            if (candidate == null) return ~slot;
+            if (candidate == key || (hashes[slot] == hash && candidate.equals(key))) return slot;
+        }
+    }
+
+    Object get(Object key) {
+        int slot = find(key, hash(key));
+        return slot >= 0 ? values[slot] : null;
+    }
+
+    boolean has(Object key) {
+        return find(key, hash(key)) >= 0;
+    }
+
+    void put(Object key, Object value) {
+        int hash = hash(key);
+        int slot = find(key, hash);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+        if ((size + 1) * 4 > keys.length * 3) {
+            grow();
+            slot = find(key, hash);
+        }
+        slot = ~slot;
+        keys[slot] = key;
+        values[slot] = value;
+        hashes[slot] = hash;
+        size++;
+        layout++;
+    }
+
+    boolean remove(Object key) {
+        int slot = find(key, hash(key));
+        if (slot < 0) return false;
+        int mask = keys.length - 1;
+        int hole = slot;
+        for (int i = (hole + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+            // The entry at i may fill the hole if the hole lies between its
+            // home slot and i.
+            int home = hashes[i] >>> shift;
+            if (((i - home) & mask) >= ((i - hole) & mask)) {
+                keys[hole] = keys[i];
+                values[hole] = values[i];
+                hashes[hole] = hashes[i];
+                hole = i;
+            }
+        }
+        keys[hole] = null;
+        values[hole] = null;
+        size--;
+        layout++;
+        return true;
+    }
+
+    private void grow() {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        allocate(oldKeys.length * 2);
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null) continue;
+            int slot = oldHashes[i] >>> shift;
+            while (keys[slot] != null) slot = (slot + 1) & mask;
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+            hashes[slot] = oldHashes[i];
+        }
+    }
+
+    // The first occupied slot after slot, or -1.
+    private int next(int slot) {
+        for (int i = slot + 1; i < keys.length; i++) {
+            if (keys[i] != null) return i;
+        }
+        return -1;
+    }
+
+    // Walks the slots of a map in place. Setting the values of existing
+    // keys is fine while iterating; adding or removing keys moves entries,
+    // after which the cursor refuses to go on.
+    static final class Cursor {
+        private final JasperMap map;
+        private final int layout;
+        private int slot = -1;
+
+        Cursor(JasperMap map) {
+            this.map = map;
+            this.layout = map.layout;
+        }
+
+        // Moves to the next entry; false once there are no more.
+        boolean next() {
+            if (map.layout != layout) throw new RuntimeError(null, "Map changed during iteration.");
+            if (slot == -2) return false;
+            slot = map.next(slot);
+            if (slot == -1) {
+                slot = -2;
+                return false;
+            }
+            return true;
+        }
+
+        Object key() {
+            return slot >= 0 ? map.keys[slot] : null;
+        }
+
+        Object value() {
+            return slot >= 0 ? map.values[slot] : null;
+        }
+
+        @Override
+        public String toString() {
+            return "<cursor>";
+        }
+    }
+
+    @Override
+    public String toString() {
+        return Interpreter.stringify(this, "{...}", text -> {
+            text.append('{');
+            for (int slot = next(-1); slot != -1; slot = next(slot)) {
+                if (text.length() > 1) text.append(", ");
+                text.append(Interpreter.stringify(keys[slot])).append(": ").append(Interpreter.stringify(values[slot]));
+            }
+            text.append('}');
+        });
+    }
+}
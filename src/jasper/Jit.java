@@ -0,0 +1,73 @@
+package jasper;
+
+/*
+ * Tiering policy for the tree-walker. Function.invoke counts calls on
+ * each declaration and Stmt.While counts back edges; a declaration that
+ * reaches the threshold is handed to JitCompiler and from then on runs
+ * as bytecode. Declarations the compiler refuses, or whose class fails to
+ * load, simply keep running in the interpreter.
+ */
+final class Jit {
+    static final int DEFAULT_THRESHOLD = 1000;
+    // Back edges that make the enclosing function compile on its next call.
+    static final int LOOP_THRESHOLD = 10000;
+
+    private final int threshold;
+    private final boolean log;
+    private final Loader loader = new Loader(Jit.class.getClassLoader());
+    // Numbers generated class names, which must be unique per loader.
+    private int compiled = 0;
+
+    Jit(int threshold, boolean log) {
+        this.threshold = threshold;
+        this.log = log;
+    }
+
+    // Called on every interpreted call of a declaration that has no code
+    // yet; returns the code once the declaration gets hot.
+    JitCode countCall(Stmt.Function declaration, boolean isMethod, boolean isInitializer) {
+        if (++declaration.calls != threshold) return null;
+        return compile(declaration, isMethod, isInitializer);
+    }
+
+    void hotLoop(Stmt.Function declaration) {
+        if (declaration.calls >= threshold) return;
+        declaration.calls = threshold - 1;
+        if (log) System.err.println("[jit] hot loop in " + declaration.name.lexeme);
+    }
+
+    private JitCode compile(Stmt.Function declaration, boolean isMethod, boolean isInitializer) {
+        String name = declaration.name.lexeme;
+        String className = "jasper/jit/" + name + "$" + compiled++;
+        try {
+            JitCompiler compiler = new JitCompiler(className);
+            byte[] bytes = compiler.compile(declaration, isMethod, isInitializer);
+            JitCode code = loader.load(className, bytes, compiler.constants());
+            declaration.jitCode = code;
+            if (log) {
+                System.err.println("[jit] compiled " + name + " (" + compiler.codeSize() + " bytes)");
+            }
+            return code;
+        } catch (JitCompiler.Unsupported e) {
+            if (log) System.err.println("[jit] " + name + " stays interpreted: " + e.getMessage());
+        } catch (ReflectiveOperationException | LinkageError | IllegalStateException e) {
+            if (log) System.err.println("[jit] " + name + " stays interpreted: " + e);
+        }
+        return null;
+    }
+
+    // Generated classes get a loader of their own so they stay apart from
+    // the interpreter's classes. Aot loads precompiled ones the same way.
+    static final class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        JitCode load(String className, byte[] bytes, Object[] constants) throws ReflectiveOperationException {
+            Class<?> c = defineClass(className.replace('/', '.'), bytes, 0, bytes.length);
+            JitCode code = (JitCode) c.getDeclaredConstructor().newInstance();
+            code.constants = constants;
+            return code;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package jasper;
+
+import java.util.List;
+
+/*
+ * Base class of the classes JitCompiler generates, one per compiled
+ * function declaration. They are defined by the JIT's own class loader,
+ * so everything they touch here and in JitRuntime has to be public.
+ */
+public abstract class JitCode {
+    // Tokens, AST nodes and literal values the generated code refers to.
+    public Object[] constants;
+
+    // Runs the function body once. Returns JitRuntime.TAIL_CALL when it
+    // ended in a tail call left in the interpreter's tailCallee.
+    public abstract Object run(Object interpreter, Object closure, Object receiver, List<Object> arguments);
+}
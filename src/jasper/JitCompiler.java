@@ -0,0 +1,526 @@
+package jasper;
+
+import java.util.*;
+
+/*
+ * Translates one function declaration into a JitCode subclass. Locals of
+ * the function live in JVM local variables instead of an Environment,
+ * which is only sound while nothing can capture them, so bodies that
+ * declare functions or classes are refused and stay interpreted. Everything
+ * else becomes straight-line bytecode around calls into JitRuntime.
+ */
+final class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final String RUNTIME = "jasper/JitRuntime";
+    private static final String O = "Ljava/lang/Object;";
+    private static final String RUN = "(" + O + O + O + "Ljava/util/List;)" + O;
+
+    // Fixed JVM locals of run(); the function's own locals follow them.
+    private static final int INTERPRETER = 1;
+    private static final int CLOSURE = 2;
+    private static final int RECEIVER = 3;
+    private static final int ARGUMENTS = 4;
+    private static final int CONSTANTS = 5;
+
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_1 = 0x04;
+    private static final int AALOAD = 0x32;
+    private static final int AASTORE = 0x53;
+    private static final int POP = 0x57;
+    private static final int DUP = 0x59;
+    private static final int IXOR = 0x82;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int GOTO = 0xa7;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+
+    // Thrown for constructs the compiler does not handle.
+    static final class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private final String className;
+    private final List<Object> constants = new ArrayList<>();
+    // The node each constant was taken from: the constant itself, its
+    // token, or for a Literal its value. Aot stores constants this way.
+    private final List<Expr> sources = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new IdentityHashMap<>();
+    // JVM local of every Resolver slot, innermost scope last.
+    private final List<List<Integer>> scopes = new ArrayList<>();
+    private ClassWriter.Code code;
+    private int nextLocal = CONSTANTS + 1;
+
+    JitCompiler(String className) {
+        this.className = className;
+    }
+
+    Object[] constants() {
+        return constants.toArray();
+    }
+
+    List<Expr> constantSources() {
+        return sources;
+    }
+
+    int codeSize() {
+        return code.size();
+    }
+
+    byte[] compile(Stmt.Function function, boolean isMethod, boolean isInitializer) {
+        ClassWriter writer = new ClassWriter(className, "jasper/JitCode");
+        ClassWriter.Code init = writer.method(ClassWriter.ACC_PUBLIC, "<init>", "()V");
+        init.aload(0);
+        init.invokespecial("jasper/JitCode", "<init>", "()V");
+        init.op(RETURN, 0);
+
+        code = writer.method(ClassWriter.ACC_PUBLIC, "run", RUN);
+        code.aload(0);
+        code.getfield("jasper/JitCode", "constants", "[" + O);
+        code.astore(CONSTANTS);
+
+        List<Integer> scope = new ArrayList<>();
+        if (isMethod) scope.add(RECEIVER);
+        for (int i = 0; i < function.parameters.size(); i++) {
+            code.aload(ARGUMENTS);
+            code.iconst(i);
+            code.invokeinterface("java/util/List", "get", "(I)" + O);
+            scope.add(store());
+        }
+        scopes.add(scope);
+        for (Stmt statement : function.body) {
+            statement.accept(this);
+        }
+        if (isInitializer) {
+            code.aload(RECEIVER);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.op(ARETURN, -1);
+
+        if (code.size() > 0xffff) throw new Unsupported("function too large");
+        return writer.toByteArray();
+    }
+
+    // Pops the top of the stack into a fresh JVM local.
+    private int store() {
+        int local = nextLocal++;
+        code.astore(local);
+        return local;
+    }
+
+    private void constant(Object value, Expr source) {
+        Integer index = constantIndex.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            sources.add(source);
+            constantIndex.put(value, index);
+        }
+        code.aload(CONSTANTS);
+        code.iconst(index);
+        code.op(AALOAD, -1);
+    }
+
+    private void runtime(String method, String descriptor) {
+        code.invokestatic(RUNTIME, method, descriptor);
+    }
+
+    private void load(Expr source, Token name, int depth, int slot) {
+        if (depth == -1) {
+            code.aload(INTERPRETER);
+            constant(name, source);
+            runtime("getGlobal", "(" + O + O + ")" + O);
+        } else if (depth < scopes.size()) {
+            code.aload(scopes.get(scopes.size() - 1 - depth).get(slot));
+        } else {
+            code.aload(CLOSURE);
+            code.iconst(depth - scopes.size());
+            code.iconst(slot);
+            runtime("getAt", "(" + O + "II)" + O);
+        }
+    }
+
+    // Stores the value on top of the stack, consuming it.
+    private void store(Expr source, Token name, int depth, int slot) {
+        if (depth == -1) {
+            code.aload(INTERPRETER);
+            constant(name, source);
+            runtime("setGlobal", "(" + O + O + O + ")V");
+        } else if (depth < scopes.size()) {
+            code.astore(scopes.get(scopes.size() - 1 - depth).get(slot));
+        } else {
+            code.aload(CLOSURE);
+            code.iconst(depth - scopes.size());
+            code.iconst(slot);
+            runtime("setAt", "(" + O + O + "II)V");
+        }
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    // Jumps to target when expr's truthiness equals jumpIf, without boxing
+    // the comparisons and logical operators conditions are made of.
+    private void branch(Expr expr, ClassWriter.Label target, boolean jumpIf) {
+        if (expr instanceof Expr.Grouping) {
+            branch(((Expr.Grouping) expr).expression, target, jumpIf);
+            return;
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            boolean isOr = logical.operator.type == TokenType.OR;
+            if (isOr == jumpIf) {
+                branch(logical.left, target, jumpIf);
+                branch(logical.right, target, jumpIf);
+            } else {
+                ClassWriter.Label skip = new ClassWriter.Label();
+                branch(logical.left, skip, !jumpIf);
+                branch(logical.right, target, jumpIf);
+                code.mark(skip);
+            }
+            return;
+        }
+        if (expr instanceof Expr.Unary && ((Expr.Unary) expr).operator.type == TokenType.BANG) {
+            branch(((Expr.Unary) expr).right, target, !jumpIf);
+            return;
+        }
+        if (expr instanceof Expr.Binary && compare((Expr.Binary) expr)) {
+            if (((Expr.Binary) expr).operator.type == TokenType.BANG_EQUAL) jumpIf = !jumpIf;
+        } else {
+            compile(expr);
+            runtime("truthy", "(" + O + ")Z");
+        }
+        code.jump(jumpIf ? IFNE : IFEQ, target, -1);
+    }
+
+    // Emits a comparison as a JVM boolean, or returns false if expr is
+    // not one. BANG_EQUAL is left as equality for the caller to invert.
+    private boolean compare(Expr.Binary expr) {
+        String method;
+        switch (expr.operator.type) {
+            case LESS: method = "less"; break;
+            case LESS_EQUAL: method = "lessEqual"; break;
+            case GREATER: method = "greater"; break;
+            case GREATER_EQUAL: method = "greaterEqual"; break;
+            case EQUAL_EQUAL:
+            case BANG_EQUAL:
+                compile(expr.left);
+                compile(expr.right);
+                runtime("equal", "(" + O + O + ")Z");
+                return true;
+            default:
+                return false;
+        }
+        compile(expr.left);
+        compile(expr.right);
+        constant(expr.operator, expr);
+        runtime(method, "(" + O + O + O + ")Z");
+        return true;
+    }
+
+    private void box() {
+        code.invokestatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+    }
+
+    private void arguments(List<Expr> arguments) {
+        code.iconst(arguments.size());
+        code.anewarray("java/lang/Object");
+        for (int i = 0; i < arguments.size(); i++) {
+            code.op(DUP, 1);
+            code.iconst(i);
+            compile(arguments.get(i));
+            code.op(AASTORE, -3);
+        }
+    }
+
+    private void call(Expr.Call expr, boolean isTail) {
+        String tail = "[" + O + O + O + "Z)" + O;
+        if (expr.callee instanceof Expr.Get) {
+            compile(((Expr.Get) expr.callee).object);
+            code.op(DUP, 1);
+            constant(expr, expr);
+            runtime("lookupMethod", "(" + O + O + ")" + O);
+            arguments(expr.arguments);
+            constant(expr, expr);
+            code.aload(INTERPRETER);
+            code.iconst(isTail ? 1 : 0);
+            runtime("invoke", "(" + O + O + tail);
+        } else if (expr.callee instanceof Expr.Super) {
+            Expr.Super sup = (Expr.Super) expr.callee;
+            load(sup, sup.keyword, sup.depth - 1, 0);
+            load(sup, sup.keyword, sup.depth, sup.slot);
+            constant(sup, sup);
+            runtime("superMethod", "(" + O + O + ")" + O);
+            arguments(expr.arguments);
+            constant(expr, expr);
+            code.aload(INTERPRETER);
+            code.iconst(isTail ? 1 : 0);
+            runtime("invoke", "(" + O + O + tail);
+        } else {
+            compile(expr.callee);
+            arguments(expr.arguments);
+            constant(expr, expr);
+            code.aload(INTERPRETER);
+            code.iconst(isTail ? 1 : 0);
+            runtime("call", "(" + O + tail);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new ArrayList<>());
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("declares class " + stmt.name.lexeme);
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        code.op(POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("declares function " + stmt.name.lexeme);
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        ClassWriter.Label otherwise = new ClassWriter.Label();
+        branch(stmt.condition, otherwise, false);
+        compile(stmt.then);
+        if (stmt.elseBranch != null) {
+            ClassWriter.Label end = new ClassWriter.Label();
+            code.jump(GOTO, end, 0);
+            code.mark(otherwise);
+            compile(stmt.elseBranch);
+            code.mark(end);
+        } else {
+            code.mark(otherwise);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        throw new Unsupported("imports " + stmt.path.lexeme);
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        runtime("print", "(" + O + ")V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.tailCall) {
+            call((Expr.Call) stmt.value, true);
+        } else if (stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        code.op(ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            code.op(ACONST_NULL, 1);
+        }
+        scopes.get(scopes.size() - 1).add(store());
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        ClassWriter.Label top = new ClassWriter.Label();
+        ClassWriter.Label end = new ClassWriter.Label();
+        code.mark(top);
+        branch(stmt.condition, end, false);
+        compile(stmt.body);
+        code.jump(GOTO, top, 0);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        code.op(DUP, 1);
+        store(expr, expr.name, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        String method;
+        switch (expr.operator.type) {
+            case PLUS: method = "add"; break;
+            case MINUS: method = "subtract"; break;
+            case STAR: method = "multiply"; break;
+            case SLASH: method = "divide"; break;
+            default:
+                compare(expr);
+                if (expr.operator.type == TokenType.BANG_EQUAL) {
+                    code.op(ICONST_1, 1);
+                    code.op(IXOR, -1);
+                }
+                box();
+                return null;
+        }
+        compile(expr.left);
+        compile(expr.right);
+        constant(expr.operator, expr);
+        runtime(method, "(" + O + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        call(expr, false);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        constant(expr, expr);
+        runtime("get", "(" + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        compile(expr.object);
+        compile(expr.index);
+        constant(expr, expr);
+        runtime("index", "(" + O + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        arguments(expr.elements);
+        runtime("list", "([" + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        List<Expr> entries = new ArrayList<>(expr.keys.size() * 2);
+        for (int i = 0; i < expr.keys.size(); i++) {
+            entries.add(expr.keys.get(i));
+            entries.add(expr.values.get(i));
+        }
+        arguments(entries);
+        constant(expr, expr);
+        runtime("map", "([" + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        constant(expr, expr);
+        runtime("set", "(" + O + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        compile(expr.object);
+        compile(expr.index);
+        compile(expr.value);
+        constant(expr, expr);
+        runtime("setIndex", "(" + O + O + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        load(expr, expr.keyword, expr.depth, expr.slot);
+        constant(expr, expr);
+        runtime("superMethod", "(" + O + O + ")" + O);
+        load(expr, expr.keyword, expr.depth - 1, 0);
+        runtime("getSuper", "(" + O + O + ")" + O);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        load(expr, expr.keyword, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            code.op(ACONST_NULL, 1);
+        } else {
+            constant(expr.value, expr);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        ClassWriter.Label end = new ClassWriter.Label();
+        compile(expr.left);
+        code.op(DUP, 1);
+        runtime("truthy", "(" + O + ")Z");
+        code.jump(expr.operator.type == TokenType.OR ? IFNE : IFEQ, end, -1);
+        code.op(POP, -1);
+        compile(expr.right);
+        code.mark(end);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if (expr.operator.type == TokenType.BANG) {
+            runtime("not", "(" + O + ")" + O);
+        } else {
+            constant(expr.operator, expr);
+            runtime("negate", "(" + O + O + ")" + O);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        load(expr, expr.name, expr.depth, expr.slot);
+        return null;
+    }
+}
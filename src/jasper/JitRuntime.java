@@ -0,0 +1,181 @@
+package jasper;
+
+import java.util.*;
+
+/*
+ * Operations compiled code calls into. Each one mirrors the matching
+ * Interpreter visit method, including its runtime errors; the numeric
+ * cases are tested first and are small enough for HotSpot to inline.
+ * Parameters are typed Object because the generated classes live in
+ * another class loader and cannot name package-private types.
+ */
+public final class JitRuntime {
+    public static final Object TAIL_CALL = new Object();
+
+    private JitRuntime() {
+    }
+
+    public static Object getAt(Object environment, int depth, int slot) {
+        return ((Environment) environment).getAt(depth, slot);
+    }
+
+    public static void setAt(Object value, Object environment, int depth, int slot) {
+        ((Environment) environment).assignAt(depth, slot, value);
+    }
+
+    public static Object getGlobal(Object interpreter, Object name) {
+        return ((Interpreter) interpreter).globals.get((Token) name);
+    }
+
+    public static void setGlobal(Object value, Object interpreter, Object name) {
+        ((Interpreter) interpreter).globals.assign((Token) name, value);
+    }
+
+    public static boolean truthy(Object value) {
+        return Interpreter.isTruthy(value);
+    }
+
+    public static Object not(Object value) {
+        return !Interpreter.isTruthy(value);
+    }
+
+    public static Object negate(Object value, Object operator) {
+        Interpreter.checkNumberOperand((Token) operator, value);
+        return -(double) value;
+    }
+
+    public static boolean equal(Object left, Object right) {
+        return Interpreter.isEqual(left, right);
+    }
+
+    public static Object add(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        return Interpreter.binary((Token) operator, left, right);
+    }
+
+    public static Object subtract(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left - (double) right;
+        }
+        return Interpreter.binary((Token) operator, left, right);
+    }
+
+    public static Object multiply(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left * (double) right;
+        }
+        return Interpreter.binary((Token) operator, left, right);
+    }
+
+    public static Object divide(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left / (double) right;
+        }
+        return Interpreter.binary((Token) operator, left, right);
+    }
+
+    public static boolean less(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left < (double) right;
+        }
+        return (boolean) Interpreter.binary((Token) operator, left, right);
+    }
+
+    public static boolean lessEqual(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left <= (double) right;
+        }
+        return (boolean) Interpreter.binary((Token) operator, left, right);
+    }
+
+    public static boolean greater(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left > (double) right;
+        }
+        return (boolean) Interpreter.binary((Token) operator, left, right);
+    }
+
+    public static boolean greaterEqual(Object left, Object right, Object operator) {
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left >= (double) right;
+        }
+        return (boolean) Interpreter.binary((Token) operator, left, right);
+    }
+
+    public static Object get(Object object, Object expr) {
+        Expr.Get get = (Expr.Get) expr;
+        if (object instanceof Instance) {
+            return get.cache.read((Instance) object, get.name);
+        }
+        return Interpreter.property(object, get.name.lexeme, get.name);
+    }
+
+    public static Object set(Object object, Object value, Object expr) {
+        Expr.Set set = (Expr.Set) expr;
+        if (!(object instanceof Instance)) {
+            throw new RuntimeError(set.name, "Only instances have fields.");
+        }
+        set.cache.write((Instance) object, set.name, value);
+        return value;
+    }
+
+    public static Object index(Object object, Object index, Object expr) {
+        return Interpreter.index(object, index, ((Expr.Index) expr).bracket);
+    }
+
+    public static Object setIndex(Object object, Object index, Object value, Object expr) {
+        return Interpreter.setIndex(object, index, value, ((Expr.SetIndex) expr).bracket);
+    }
+
+    public static Object list(Object[] elements) {
+        JasperList list = new JasperList(elements.length);
+        for (Object element : elements) list.add(element);
+        return list;
+    }
+
+    // Keys and values alternate in entries.
+    public static Object map(Object[] entries, Object expr) {
+        Token brace = ((Expr.MapLiteral) expr).brace;
+        JasperMap map = new JasperMap(entries.length / 2);
+        for (int i = 0; i < entries.length; i += 2) {
+            Interpreter.setIndex(map, entries[i], entries[i + 1], brace);
+        }
+        return map;
+    }
+
+    public static Object superMethod(Object superclass, Object expr) {
+        return Interpreter.findSuperMethod((JasperClass) superclass, (Expr.Super) expr);
+    }
+
+    public static Object getSuper(Object method, Object receiver) {
+        return ((Function) method).bind((Instance) receiver);
+    }
+
+    // The method a call site's receiver resolves to, looked up before the
+    // arguments are evaluated as in the interpreter.
+    public static Object lookupMethod(Object object, Object expr) {
+        Expr.Call call = (Expr.Call) expr;
+        Expr.Get get = (Expr.Get) call.callee;
+        if (!(object instanceof Instance)) {
+            throw new RuntimeError(get.name, "Only instances have properties.");
+        }
+        return call.cache.lookup((Instance) object, get.name);
+    }
+
+    public static Object call(Object callee, Object[] arguments, Object expr, Object interpreter, boolean isTail) {
+        return invoke(null, callee, arguments, expr, interpreter, isTail);
+    }
+
+    public static Object invoke(Object receiver, Object callee, Object[] arguments, Object expr, Object interpreter, boolean isTail) {
+        Interpreter in = (Interpreter) interpreter;
+        Object result = in.call((Expr.Call) expr, callee, (Instance) receiver, Arrays.asList(arguments), isTail);
+        if (isTail && in.tailCallee != null) return TAIL_CALL;
+        return result;
+    }
+
+    public static void print(Object value) {
+        System.out.println(Interpreter.stringify(value));
+    }
+}
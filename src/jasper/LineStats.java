@@ -0,0 +1,96 @@
+package jasper;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/*
+ * Execution counts per source line, for --line-stats. Interpreter.execute
+ * bumps the count of each statement's line in a plain int array, so
+ * counting costs an array increment per statement. The report lists the
+ * script with the count of every line that holds a statement and marks
+ * the ones that never ran, so it doubles as coverage.
+ *
+ * Counts are by line number only: statements of imported modules count
+ * towards the same numbers.
+ */
+final class LineStats {
+    private int[] hits = new int[1024];
+    // Lines that hold a statement, whether it ran or not.
+    private boolean[] executable = new boolean[1024];
+
+    void hit(int line) {
+        if (line >= hits.length) hits = Arrays.copyOf(hits, Math.max(line + 1, hits.length * 2));
+        hits[line]++;
+    }
+
+    // Records where the statements are, so lines that never run show up.
+    void register(List<? extends Stmt> statements) {
+        for (Stmt statement : statements) register(statement);
+    }
+
+    private void register(Stmt stmt) {
+        if (stmt == null) return;
+        if (stmt.line > 0) {
+            if (stmt.line >= executable.length) {
+                executable = Arrays.copyOf(executable, Math.max(stmt.line + 1, executable.length * 2));
+            }
+            executable[stmt.line] = true;
+        }
+        if (stmt instanceof Stmt.Block) {
+            register(((Stmt.Block) stmt).statements);
+        } else if (stmt instanceof Stmt.Class) {
+            register(((Stmt.Class) stmt).methods);
+        } else if (stmt instanceof Stmt.Function) {
+            register(((Stmt.Function) stmt).body);
+        } else if (stmt instanceof Stmt.If) {
+            register(((Stmt.If) stmt).then);
+            register(((Stmt.If) stmt).elseBranch);
+        } else if (stmt instanceof Stmt.While) {
+            register(((Stmt.While) stmt).body);
+        }
+    }
+
+    // Lists every line of script with its count: "-" for lines without
+    // statements, "#####" for statements that never ran. Without a script
+    // only the counted lines are listed.
+    void report(Path script, PrintStream out) {
+        int lines = Math.max(hits.length, executable.length);
+        int statements = 0;
+        int run = 0;
+        for (int line = 1; line < lines; line++) {
+            boolean hasStatement = line < executable.length && executable[line];
+            boolean ran = line < hits.length && hits[line] > 0;
+            if (hasStatement || ran) statements++;
+            if (ran) run++;
+        }
+        out.printf("[line-stats] %d of %d lines with statements ran (%.1f%%)%n",
+                run, statements, statements == 0 ? 100.0 : 100.0 * run / statements);
+
+        List<String> source = null;
+        if (script != null) {
+            try {
+                source = Files.readAllLines(script);
+            } catch (IOException e) {
+                // Fall back to the counts alone.
+            }
+        }
+        if (source == null) {
+            for (int line = 1; line < hits.length; line++) {
+                if (hits[line] > 0) out.printf("%10d %5d%n", hits[line], line);
+            }
+            return;
+        }
+        for (int line = 1; line <= source.size(); line++) {
+            String count;
+            if (line < hits.length && hits[line] > 0) {
+                count = Integer.toString(hits[line]);
+            } else if (line < executable.length && executable[line]) {
+                count = "#####";
+            } else {
+                count = "-";
+            }
+            out.printf("%10s %5d: %s%n", count, line, source.get(line - 1));
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package jasper;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/*
+ * A script loaded by an import: its resolved program, and the state of the
+ * file it was compiled from, so ModuleLoader can tell when it has changed.
+ */
+final class Module {
+    final Path path;
+    final FileTime modified;
+    final long size;
+    final List<Stmt> statements;
+
+    Module(Path path, FileTime modified, long size, List<Stmt> statements) {
+        this.path = path;
+        this.modified = modified;
+        this.size = size;
+        this.statements = statements;
+    }
+
+    // The imports of this module, which are all at top level.
+    List<Stmt.Import> imports() {
+        return ModuleLoader.imports(statements);
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName().toString();
+    }
+}
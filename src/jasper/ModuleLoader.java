@@ -0,0 +1,160 @@
+package jasper;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Finds and compiles the modules a program imports. The import graph is
+ * walked a level at a time, and the modules of each level are scanned,
+ * parsed and resolved in parallel on a thread pool. Compiled modules are
+ * kept for the life of the process and only compiled again once their
+ * file changes; across runs they go through ProgramCache like scripts.
+ *
+ * Module paths are relative to the importing file.
+ */
+final class ModuleLoader {
+    private final ExecutorService pool = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), task -> {
+                Thread thread = new Thread(task, "jasper-module-loader");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private final Map<Path, Module> modules = new ConcurrentHashMap<>();
+    // Compile errors of modules that failed to load, until link prints them.
+    private final Map<Path, List<String>> failures = new ConcurrentHashMap<>();
+    private final boolean useCache;
+    private final boolean optimize;
+
+    ModuleLoader(boolean useCache, boolean optimize) {
+        this.useCache = useCache;
+        this.optimize = optimize;
+    }
+
+    static List<Stmt.Import> imports(List<Stmt> statements) {
+        List<Stmt.Import> imports = new ArrayList<>();
+        for (Stmt statement : statements) {
+            if (statement instanceof Stmt.Import) imports.add((Stmt.Import) statement);
+        }
+        return imports;
+    }
+
+    // Loads everything the statements of script import, directly or not,
+    // and attaches each module to its import statements. Modules that
+    // cannot be loaded and import cycles are reported as errors. script is
+    // null for code that is not from a file.
+    void link(List<Stmt> statements, Path script) {
+        Path directory = script == null ? Paths.get("").toAbsolutePath() : script.toAbsolutePath().getParent();
+        List<Stmt.Import> roots = imports(statements);
+        Map<Path, Module> linked = new HashMap<>();
+        Map<Stmt.Import, Path> pending = targets(roots, directory);
+        while (!pending.isEmpty()) {
+            Map<Path, Future<Module>> loads = new LinkedHashMap<>();
+            for (Path path : pending.values()) {
+                if (!linked.containsKey(path) && !loads.containsKey(path)) {
+                    loads.put(path, pool.submit(() -> load(path)));
+                }
+            }
+
+            Map<Stmt.Import, Path> next = new LinkedHashMap<>();
+            for (Map.Entry<Path, Future<Module>> load : loads.entrySet()) {
+                Module module = await(load.getValue());
+                linked.put(load.getKey(), module);
+                List<String> errors = failures.remove(load.getKey());
+                if (errors != null) {
+                    for (String error : errors) System.out.println(display(load.getKey()) + ": " + error);
+                }
+                if (module != null) next.putAll(targets(module.imports(), module.path.getParent()));
+            }
+            for (Map.Entry<Stmt.Import, Path> target : pending.entrySet()) {
+                Stmt.Import stmt = target.getKey();
+                stmt.module = linked.get(target.getValue());
+                if (stmt.module == null) {
+                    Jasper.error(stmt.path, "Cannot load module '" + stmt.path.literal + "'.");
+                }
+            }
+            pending = next;
+        }
+
+        Set<Module> checked = new HashSet<>();
+        for (Stmt.Import stmt : roots) checkCycles(stmt, new ArrayList<>(), checked);
+    }
+
+    private static Map<Stmt.Import, Path> targets(List<Stmt.Import> imports, Path directory) {
+        Map<Stmt.Import, Path> targets = new LinkedHashMap<>();
+        for (Stmt.Import stmt : imports) {
+            targets.put(stmt, directory.resolve((String) stmt.path.literal).normalize());
+        }
+        return targets;
+    }
+
+    // Runs on the pool. Null when the module cannot be read or has errors,
+    // which are left in failures for link to print.
+    private Module load(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            Module module = modules.get(path);
+            if (module != null && module.modified.equals(attributes.lastModifiedTime())
+                    && module.size == attributes.size()) {
+                return module;
+            }
+
+            Source source = Source.map(path);
+            Path cache = ProgramCache.pathFor(path.toString());
+            byte[] key = ProgramCache.key(source.bytes(), optimize);
+            List<Stmt> statements = useCache ? ProgramCache.load(cache, key) : null;
+            if (statements == null) {
+                List<String> errors = new ArrayList<>();
+                statements = Jasper.compileModule(source, errors);
+                if (statements == null) {
+                    failures.put(path, errors);
+                    return null;
+                }
+                if (useCache) ProgramCache.store(cache, key, statements);
+            }
+            module = new Module(path, attributes.lastModifiedTime(), attributes.size(), statements);
+            modules.put(path, module);
+            return module;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // path relative to the working directory, when it is below it.
+    private static Path display(Path path) {
+        Path directory = Paths.get("").toAbsolutePath();
+        return path.startsWith(directory) ? directory.relativize(path) : path;
+    }
+
+    private static Module await(Future<Module> load) {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) throw (Error) e.getCause();
+            throw (RuntimeException) e.getCause();
+        }
+    }
+
+    // Depth-first over the modules, with stack holding the chain of
+    // modules being imported.
+    private static void checkCycles(Stmt.Import stmt, List<Module> stack, Set<Module> checked) {
+        Module module = stmt.module;
+        if (module == null || checked.contains(module)) return;
+        int start = stack.indexOf(module);
+        if (start >= 0) {
+            StringBuilder cycle = new StringBuilder();
+            for (Module imported : stack.subList(start, stack.size())) cycle.append(imported).append(" -> ");
+            Jasper.error(stmt.path, "Import cycle: " + cycle + module + ".");
+            return;
+        }
+        stack.add(module);
+        for (Stmt.Import imported : module.imports()) checkCycles(imported, stack, checked);
+        stack.remove(stack.size() - 1);
+        checked.add(module);
+    }
+}
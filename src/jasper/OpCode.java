@@ -0,0 +1,90 @@
+package jasper;
+
+/*
+ * Instruction set of the bytecode VM. Operands follow the opcode byte:
+ * u8 for local, upvalue and argument counts, u16 (big-endian) for
+ * constant-pool, global and jump operands.
+ */
+final class OpCode {
+    static final byte CONSTANT = 0;       // u16 constant
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte POP = 4;
+    static final byte GET_LOCAL = 5;      // u8 slot
+    static final byte SET_LOCAL = 6;      // u8 slot
+    static final byte GET_GLOBAL = 7;     // u16 global
+    static final byte DEFINE_GLOBAL = 8;  // u16 global
+    static final byte SET_GLOBAL = 9;     // u16 global
+    static final byte GET_UPVALUE = 10;   // u8 upvalue
+    static final byte SET_UPVALUE = 11;   // u8 upvalue
+    static final byte GET_PROPERTY = 12;  // u16 name constant, u16 cache
+    static final byte SET_PROPERTY = 13;  // u16 name constant, u16 cache
+    static final byte GET_SUPER = 14;     // u16 name constant
+    static final byte EQUAL = 15;
+    static final byte NOT_EQUAL = 16;
+    static final byte GREATER = 17;
+    static final byte GREATER_EQUAL = 18;
+    static final byte LESS = 19;
+    static final byte LESS_EQUAL = 20;
+    static final byte ADD = 21;
+    static final byte SUBTRACT = 22;
+    static final byte MULTIPLY = 23;
+    static final byte DIVIDE = 24;
+    static final byte NOT = 25;
+    static final byte NEGATE = 26;
+    static final byte PRINT = 27;
+    static final byte JUMP = 28;          // u16 forward offset
+    static final byte JUMP_IF_FALSE = 29; // u16 forward offset, leaves condition
+    static final byte LOOP = 30;          // u16 backward offset
+    static final byte CALL = 31;          // u8 argument count
+    static final byte INVOKE = 32;        // u16 name constant, u16 cache, u8 argument count
+    static final byte SUPER_INVOKE = 33;  // u16 name constant, u8 argument count
+    static final byte CLOSURE = 34;       // u16 function constant, then (u8 isLocal, u8 index) per upvalue
+    static final byte CLOSE_UPVALUE = 35;
+    static final byte RETURN = 36;
+    static final byte CLASS = 37;         // u16 name constant
+    static final byte INHERIT = 38;
+    static final byte METHOD = 39;        // u16 name constant
+    static final byte POP_JUMP_IF_FALSE = 40; // u16 forward offset, pops condition
+    static final byte LIST = 41;
+    static final byte APPEND = 42;        // pops an element onto the list below it
+    static final byte GET_INDEX = 43;
+    static final byte SET_INDEX = 44;
+    static final byte MAP = 45;
+    static final byte PUT = 46;           // pops a key and value into the map below them
+    static final byte NUMBER = 47;        // u16 constant, pushed unboxed
+    // Pop two numbers and jump unless the comparison holds.
+    static final byte JUMP_IF_NOT_LESS = 48;          // u16 forward offset
+    static final byte JUMP_IF_NOT_LESS_EQUAL = 49;    // u16 forward offset
+    static final byte JUMP_IF_NOT_GREATER = 50;       // u16 forward offset
+    static final byte JUMP_IF_NOT_GREATER_EQUAL = 51; // u16 forward offset
+    // Fused forms of common sequences, see Compiler. SET_* then POP:
+    static final byte STORE_LOCAL = 52;   // u8 slot
+    static final byte STORE_GLOBAL = 53;  // u16 global
+    // Arithmetic whose right operand is a number constant or a local:
+    static final byte ADD_NUMBER = 54;        // u16 constant
+    static final byte SUBTRACT_NUMBER = 55;   // u16 constant
+    static final byte MULTIPLY_NUMBER = 56;   // u16 constant
+    static final byte DIVIDE_NUMBER = 57;     // u16 constant
+    static final byte ADD_LOCAL = 58;         // u8 slot
+    static final byte SUBTRACT_LOCAL = 59;    // u8 slot
+    static final byte MULTIPLY_LOCAL = 60;    // u8 slot
+    static final byte DIVIDE_LOCAL = 61;      // u8 slot
+    // JUMP_IF_NOT_* whose right operand is a number constant or a local:
+    static final byte JUMP_IF_NOT_LESS_NUMBER = 62;          // u16 constant, u16 forward offset
+    static final byte JUMP_IF_NOT_LESS_EQUAL_NUMBER = 63;    // u16 constant, u16 forward offset
+    static final byte JUMP_IF_NOT_GREATER_NUMBER = 64;       // u16 constant, u16 forward offset
+    static final byte JUMP_IF_NOT_GREATER_EQUAL_NUMBER = 65; // u16 constant, u16 forward offset
+    static final byte JUMP_IF_NOT_LESS_LOCAL = 66;           // u8 slot, u16 forward offset
+    static final byte JUMP_IF_NOT_LESS_EQUAL_LOCAL = 67;     // u8 slot, u16 forward offset
+    static final byte JUMP_IF_NOT_GREATER_LOCAL = 68;        // u8 slot, u16 forward offset
+    static final byte JUMP_IF_NOT_GREATER_EQUAL_LOCAL = 69;  // u8 slot, u16 forward offset
+    // Push a local combined with a number constant:
+    static final byte LOCAL_ADD_NUMBER = 70;      // u8 slot, u16 constant
+    static final byte LOCAL_SUBTRACT_NUMBER = 71; // u8 slot, u16 constant
+    static final byte LOCAL_MULTIPLY_NUMBER = 72; // u8 slot, u16 constant
+    static final byte LOCAL_DIVIDE_NUMBER = 73;   // u8 slot, u16 constant
+
+    private OpCode() {}
+}
@@ -0,0 +1,492 @@
+package jasper;
+
+import java.util.*;
+
+/*
+ * Rewrites a resolved program before it runs: folds operators whose
+ * operands are literals, substitutes locals that are never reassigned and
+ * were initialized with a literal, and drops branches and loops whose
+ * condition is a known constant. Var declarations are always kept, even
+ * when every read was substituted, because Resolver already numbered the
+ * slots of each scope.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Literal values of the unassigned locals seen so far.
+    private final Map<Stmt.Var, Object> constants = new IdentityHashMap<>();
+    // Loops of the functions being optimized, innermost function on top,
+    // which must point at the function's replacement if it gets one.
+    private final Deque<List<Stmt.While>> loops = new ArrayDeque<>();
+    private int removed = 0;
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        int before = Size.of(statements);
+        List<Stmt> result = optimizeAll(statements);
+        removed += before - Size.of(result);
+        return result;
+    }
+
+    // Number of AST nodes the last optimize calls removed in total.
+    int removed() {
+        return removed;
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        List<Stmt> result = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt optimized = optimize(statement);
+            if (optimized != null) result.add(optimized);
+            changed |= optimized != statement;
+        }
+        return changed ? result : statements;
+    }
+
+    // Null means the statement does nothing and can be left out.
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // Branches and loop bodies must still be a statement.
+    private Stmt optimizeBody(Stmt stmt) {
+        Stmt optimized = optimize(stmt);
+        return optimized != null ? optimized : at(stmt, new Stmt.Block(new ArrayList<>()));
+    }
+
+    // A rebuilt statement keeps the line of the one it replaces.
+    private static <T extends Stmt> T at(Stmt original, T replacement) {
+        replacement.line = original.line;
+        return replacement;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object valueOf(Expr expr) {
+        return ((Expr.Literal) expr).value;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+        return at(stmt, new Stmt.Block(statements));
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt.Function optimized = (Stmt.Function) optimize(method);
+            methods.add(optimized);
+            changed |= optimized != method;
+        }
+        if (!changed) return stmt;
+        return at(stmt, new Stmt.Class(stmt.name, stmt.superclass, methods));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        // A bare constant has no effect.
+        if (isLiteral(expression)) return null;
+        if (expression == stmt.expression) return stmt;
+        return at(stmt, new Stmt.Expression(expression));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        loops.push(new ArrayList<>());
+        List<Stmt> body = optimizeAll(stmt.body);
+        List<Stmt.While> rebuilt = loops.pop();
+        if (body == stmt.body) return stmt;
+        Stmt.Function result = at(stmt, new Stmt.Function(stmt.name, stmt.parameters, body));
+        for (Stmt.While loop : rebuilt) loop.function = result;
+        return result;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (isLiteral(condition)) {
+            if (Interpreter.isTruthy(valueOf(condition))) return optimize(stmt.then);
+            return stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        }
+        Stmt then = optimizeBody(stmt.then);
+        Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        if (condition == stmt.condition && then == stmt.then && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return at(stmt, new Stmt.If(condition, then, elseBranch));
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return at(stmt, new Stmt.Print(expression));
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        Stmt.Return result = at(stmt, new Stmt.Return(stmt.keyword, value));
+        result.tailCall = stmt.tailCall && value instanceof Expr.Call;
+        return result;
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) {
+            if (!stmt.reassigned) constants.put(stmt, null);
+            return stmt;
+        }
+        Expr initializer = optimize(stmt.initializer);
+        if (!stmt.reassigned && isLiteral(initializer)) {
+            constants.put(stmt, valueOf(initializer));
+        }
+        if (initializer == stmt.initializer) return stmt;
+        Stmt.Var result = at(stmt, new Stmt.Var(stmt.name, initializer));
+        result.reassigned = stmt.reassigned;
+        return result;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (isLiteral(condition) && !Interpreter.isTruthy(valueOf(condition))) return null;
+        Stmt body = optimizeBody(stmt.body);
+        Stmt.While result = stmt;
+        if (condition != stmt.condition || body != stmt.body) {
+            result = at(stmt, new Stmt.While(condition, body));
+            // The declaration hot-loop tiering compiles, see Resolver.
+            result.function = stmt.function;
+        }
+        if (stmt.function != null) loops.peek().add(result);
+        return result;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+        Expr.Assign result = new Expr.Assign(expr.name, value);
+        result.depth = expr.depth;
+        result.slot = expr.slot;
+        return result;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if (isLiteral(left) && isLiteral(right)) {
+            try {
+                Object value = Interpreter.binary(expr.operator, valueOf(left), valueOf(right));
+                return new Expr.Literal(Concat.flat(value));
+            } catch (RuntimeError error) {
+                // Leave it for the program to report when it runs.
+            }
+        }
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        boolean changed = callee != expr.callee;
+        for (Expr argument : expr.arguments) {
+            Expr optimized = optimize(argument);
+            arguments.add(optimized);
+            changed |= optimized != argument;
+        }
+        if (!changed) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitIndexExpr(Expr.Index expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        if (object == expr.object && index == expr.index) return expr;
+        return new Expr.Index(object, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitListLiteralExpr(Expr.ListLiteral expr) {
+        List<Expr> elements = new ArrayList<>(expr.elements.size());
+        boolean changed = false;
+        for (Expr element : expr.elements) {
+            Expr optimized = optimize(element);
+            elements.add(optimized);
+            changed |= optimized != element;
+        }
+        if (!changed) return expr;
+        return new Expr.ListLiteral(expr.bracket, elements);
+    }
+
+    @Override
+    public Expr visitMapLiteralExpr(Expr.MapLiteral expr) {
+        List<Expr> keys = new ArrayList<>(expr.keys.size());
+        List<Expr> values = new ArrayList<>(expr.values.size());
+        boolean changed = false;
+        for (int i = 0; i < expr.keys.size(); i++) {
+            Expr key = optimize(expr.keys.get(i));
+            Expr value = optimize(expr.values.get(i));
+            keys.add(key);
+            values.add(value);
+            changed |= key != expr.keys.get(i) || value != expr.values.get(i);
+        }
+        if (!changed) return expr;
+        return new Expr.MapLiteral(expr.brace, keys, values);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSetIndexExpr(Expr.SetIndex expr) {
+        Expr object = optimize(expr.object);
+        Expr index = optimize(expr.index);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && index == expr.index && value == expr.value) return expr;
+        return new Expr.SetIndex(object, expr.bracket, index, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Parentheses only matter to the parser.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        if (isLiteral(left)) {
+            boolean truthy = Interpreter.isTruthy(valueOf(left));
+            if (expr.operator.type == TokenType.OR ? truthy : !truthy) return left;
+            return optimize(expr.right);
+        }
+        Expr right = optimize(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if (isLiteral(right)) {
+            Object value = valueOf(right);
+            if (expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!Interpreter.isTruthy(value));
+            }
+            if (value instanceof Double) return new Expr.Literal(-(double) value);
+        }
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        if (expr.declaration != null && constants.containsKey(expr.declaration)) {
+            return new Expr.Literal(constants.get(expr.declaration));
+        }
+        return expr;
+    }
+
+    // Counts the nodes of a tree, so the optimizer can report what it saved.
+    private static class Size implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private static final Size INSTANCE = new Size();
+
+        static int of(List<? extends Stmt> statements) {
+            int size = 0;
+            for (Stmt statement : statements) size += statement.accept(INSTANCE);
+            return size;
+        }
+
+        private static int of(Expr expr) {
+            return expr == null ? 0 : expr.accept(INSTANCE);
+        }
+
+        private static int of(Stmt stmt) {
+            return stmt == null ? 0 : stmt.accept(INSTANCE);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            return 1 + of(stmt.statements);
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            return 1 + of(stmt.superclass) + of(stmt.methods);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            return 1 + of(stmt.expression);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            return 1 + of(stmt.body);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            return 1 + of(stmt.condition) + of(stmt.then) + of(stmt.elseBranch);
+        }
+
+        @Override
+        public Integer visitImportStmt(Stmt.Import stmt) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            return 1 + of(stmt.expression);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            return 1 + of(stmt.value);
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            return 1 + of(stmt.initializer);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            return 1 + of(stmt.condition) + of(stmt.body);
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            return 1 + of(expr.value);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return 1 + of(expr.left) + of(expr.right);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int size = 1 + of(expr.callee);
+            for (Expr argument : expr.arguments) size += of(argument);
+            return size;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            return 1 + of(expr.object);
+        }
+
+        @Override
+        public Integer visitIndexExpr(Expr.Index expr) {
+            return 1 + of(expr.object) + of(expr.index);
+        }
+
+        @Override
+        public Integer visitListLiteralExpr(Expr.ListLiteral expr) {
+            int size = 1;
+            for (Expr element : expr.elements) size += of(element);
+            return size;
+        }
+
+        @Override
+        public Integer visitMapLiteralExpr(Expr.MapLiteral expr) {
+            int size = 1;
+            for (int i = 0; i < expr.keys.size(); i++) size += of(expr.keys.get(i)) + of(expr.values.get(i));
+            return size;
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            return 1 + of(expr.object) + of(expr.value);
+        }
+
+        @Override
+        public Integer visitSetIndexExpr(Expr.SetIndex expr) {
+            return 1 + of(expr.object) + of(expr.index) + of(expr.value);
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return 1 + of(expr.expression);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return 1 + of(expr.left) + of(expr.right);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            return 1 + of(expr.right);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return 1;
+        }
+    }
+}
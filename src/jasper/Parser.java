@@ -19,7 +19,8 @@ args -> expression ( "," expression)*;
 primary        → NUMBER | STRING | "true" | "false" | "nil"
                | "(" expression ")" | IDENTIFIER | "super" "." IDENTIFIER;
 program -> (declaration)* EOF;
-* declaration -> varDecl | statement | funcDecl | classDecl;
+* declaration -> varDecl | statement | funcDecl | classDecl | importDecl;
+* importDecl -> "import" STRING ";" ;
 * classDecl -> "class" + IDENTIFIER ("<" IDENTIFIER)* + "{" + function* + "}"
 * funcDecl        → "fun" function ;
 function       → IDENTIFIER "(" parameters? ")" block ;
@@ -40,11 +41,14 @@ function       → IDENTIFIER "(" parameters? ")" block ;
 class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // Tokens are scanned as parsing needs them; the grammar never looks
+    // further than one token ahead. Token objects are only built for the
+    // tokens that end up in the tree or in an error.
+    private final TokenBuffer tokens;
+    private long current = 0;
 
-    Parser(List<Token> tokens) {
-        this.tokens = tokens;
+    Parser(Scanner scanner) {
+        this.tokens = scanner.tokens();
     }
 
     List<Stmt> parse() {
@@ -56,11 +60,24 @@ class Parser {
         return statements;
     }
 
+    // For running a program as it is parsed, one top-level declaration
+    // at a time.
+    boolean hasNext() {
+        return !isAtEnd();
+    }
+
+    // Null after a parse error, which has been reported.
+    Stmt next() {
+        return declaration();
+    }
+
     private Stmt declaration() {
+        int line = tokens.line(current);
         try {
-            if (match(CLASS)) return classDeclaration();
-            if (match(FUNC)) return function("function");
-            if (match(VAR)) return varDeclaration();
+            if (match(CLASS)) return at(line, classDeclaration());
+            if (match(FUNC)) return at(line, function("function"));
+            if (match(VAR)) return at(line, varDeclaration());
+            if (match(IMPORT)) return at(line, importDeclaration());
 
             return statement();
         } catch (ParseError error) {
@@ -73,75 +90,84 @@ class Parser {
         Token name = consume(IDENTIFIER, "Expect class name.");
         Expr.Variable superclass = null;
         if(match(LESS)){
-            consume(IDENTIFIER, "Expect superclass name");
+            expect(IDENTIFIER, "Expect superclass name");
             superclass = new Expr.Variable(previous());
         }
-        consume(LEFT_BRACE, "Expect '{' before class body.");
+        expect(LEFT_BRACE, "Expect '{' before class body.");
 
         List<Stmt.Function> methods = new ArrayList<>();
         while (!check(RIGHT_BRACE) && !isAtEnd()) {
             methods.add(function("method"));
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        expect(RIGHT_BRACE, "Expect '}' after class body.");
 
         return new Stmt.Class(name,superclass,  methods);
     }
 
     private Stmt statement() {
-        if (match(FOR)) return forStatement();
-        if (match(IF)) return ifStatement();
-        if (match(PRINT)) return printStatement();
-        if (match(RETURN)) return returnStatement();
-        if (match(WHILE)) return whileStatement();
-        if (match(LEFT_BRACE)) return new Stmt.Block(block());
+        int line = tokens.line(current);
+        if (match(FOR)) return at(line, forStatement(line));
+        if (match(IF)) return at(line, ifStatement());
+        if (match(PRINT)) return at(line, printStatement());
+        if (match(RETURN)) return at(line, returnStatement());
+        if (match(WHILE)) return at(line, whileStatement());
+        if (match(LEFT_BRACE)) return at(line, new Stmt.Block(block()));
+
+        return at(line, expressionStatement());
+    }
 
-        return expressionStatement();
+    // Records the line a statement starts on.
+    private static <T extends Stmt> T at(int line, T stmt) {
+        stmt.line = line;
+        return stmt;
     }
 
     private Stmt expressionStatement() {
         Expr expr = expression();
-        consume(SEMICOLON, "Expect ';' after expression.");
+        expect(SEMICOLON, "Expect ';' after expression.");
         return new Stmt.Expression(expr);
     }
 
-    private Stmt forStatement() {
-        consume(LEFT_PAREN, "Expect '(' after 'for'.");
+    // The statements the loop is desugared into are all on the line of
+    // 'for', so the increment counts the iterations there.
+    private Stmt forStatement(int line) {
+        expect(LEFT_PAREN, "Expect '(' after 'for'.");
 
         Stmt initializer;
         if (match(SEMICOLON)) {
             initializer = null;
         } else if (match(VAR)) {
-            initializer = varDeclaration();
+            initializer = at(line, varDeclaration());
         } else {
-            initializer = expressionStatement();
+            initializer = at(line, expressionStatement());
         }
 
         Expr condition = null;
         if (!check(SEMICOLON)) {
             condition = expression();
         }
-        consume(SEMICOLON, "Expect ';' after loop condition.");
+        expect(SEMICOLON, "Expect ';' after loop condition.");
 
         Expr increment = null;
         if (!check(RIGHT_PAREN)) {
             increment = expression();
         }
-        consume(RIGHT_PAREN, "Expect ')' after for clauses.");
+        expect(RIGHT_PAREN, "Expect ')' after for clauses.");
 
         Stmt body = statement();
 
         if (increment != null) {
-            body = new Stmt.Block(Arrays.asList(
+            body = at(line, new Stmt.Block(Arrays.asList(
                     body,
-                    new Stmt.Expression(increment)));
+                    at(line, new Stmt.Expression(increment)))));
         }
 
         if (condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = at(line, new Stmt.While(condition, body));
 
         if (initializer != null) {
-            body = new Stmt.Block(Arrays.asList(initializer, body));
+            body = at(line, new Stmt.Block(Arrays.asList(initializer, body)));
         }
 
         return body;
@@ -150,7 +176,7 @@ class Parser {
     private Stmt.Function function(String kind) {
         Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
 
-        consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
+        expect(LEFT_PAREN, "Expect '(' after " + kind + " name.");
         List<Token> parameters = new ArrayList<>();
         if (!check(RIGHT_PAREN)) {
             do {
@@ -161,18 +187,18 @@ class Parser {
                 parameters.add(consume(IDENTIFIER, "Expect parameter name."));
             } while (match(COMMA));
         }
-        consume(RIGHT_PAREN, "Expect ')' after parameters.");
+        expect(RIGHT_PAREN, "Expect ')' after parameters.");
 
-        consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        expect(LEFT_BRACE, "Expect '{' before " + kind + " body.");
         List<Stmt> body = block();
 
         return new Stmt.Function(name, parameters, body);
     }
 
     private Stmt ifStatement() {
-        consume(LEFT_PAREN, "Expect '(' after 'if'.");
+        expect(LEFT_PAREN, "Expect '(' after 'if'.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after if condition.");
+        expect(RIGHT_PAREN, "Expect ')' after if condition.");
 
         Stmt thenBranch = statement();
         Stmt elseBranch = null;
@@ -185,7 +211,7 @@ class Parser {
 
     private Stmt printStatement() {
         Expr value = expression();
-        consume(SEMICOLON, "Expect ';' after value.");
+        expect(SEMICOLON, "Expect ';' after value.");
         return new Stmt.Print(value);
     }
 
@@ -196,7 +222,7 @@ class Parser {
             value = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after return value.");
+        expect(SEMICOLON, "Expect ';' after return value.");
         return new Stmt.Return(keyword, value);
     }
 
@@ -207,7 +233,7 @@ class Parser {
             statements.add(declaration());
         }
 
-        consume(RIGHT_BRACE, "Expect '}' after block.");
+        expect(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
     }
 
@@ -219,14 +245,21 @@ class Parser {
             initializer = expression();
         }
 
-        consume(SEMICOLON, "Expect ';' after variable declaration.");
+        expect(SEMICOLON, "Expect ';' after variable declaration.");
         return new Stmt.Var(name, initializer);
     }
 
+    private Stmt importDeclaration() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Expect module path after 'import'.");
+        expect(SEMICOLON, "Expect ';' after module path.");
+        return new Stmt.Import(keyword, path);
+    }
+
     private Stmt whileStatement() {
-        consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        expect(LEFT_PAREN, "Expect '(' after 'while'.");
         Expr condition = expression();
-        consume(RIGHT_PAREN, "Expect ')' after condition.");
+        expect(RIGHT_PAREN, "Expect ')' after condition.");
         Stmt body = statement();
 
         return new Stmt.While(condition, body);
@@ -249,6 +282,9 @@ class Parser {
             } else if (expr instanceof Expr.Get) {
                 Expr.Get get = (Expr.Get)expr;
                 return new Expr.Set(get.object, get.name, value);
+            } else if (expr instanceof Expr.Index) {
+                Expr.Index index = (Expr.Index)expr;
+                return new Expr.SetIndex(index.object, index.bracket, index.index, value);
             }
 
             error(equals, "Invalid assignment target.");
@@ -348,6 +384,11 @@ class Parser {
             } else if (match(DOT)) {
                 Token name = consume(IDENTIFIER, "Expect property name after '.'.");
                 expr = new Expr.Get(expr, name);
+            } else if (match(LEFT_BRACKET)) {
+                Token bracket = previous();
+                Expr index = expression();
+                expect(RIGHT_BRACKET, "Expect ']' after index.");
+                expr = new Expr.Index(expr, bracket, index);
             } else {
                 break;
             }
@@ -378,12 +419,12 @@ class Parser {
         if (match(NIL)) return new Expr.Literal(null);
         if(match(SUPER)) {
             Token keyword = previous();
-            consume(DOT, "Expect '.' after super");
+            expect(DOT, "Expect '.' after super");
             Token method = consume(IDENTIFIER, "Expect method name after 'super.'");
             return new Expr.Super(keyword, method);
         }
         if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
         }
 
         if (match(THIS)) return new Expr.This(previous());
@@ -393,10 +434,37 @@ class Parser {
 
         if (match(LEFT_PAREN)) {
             Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
+            expect(RIGHT_PAREN, "Expect ')' after expression.");
             return new Expr.Grouping(expr);
         }
 
+        if (match(LEFT_BRACKET)) {
+            Token bracket = previous();
+            List<Expr> elements = new ArrayList<>();
+            if (!check(RIGHT_BRACKET)) {
+                do {
+                    elements.add(expression());
+                } while (match(COMMA));
+            }
+            expect(RIGHT_BRACKET, "Expect ']' after list elements.");
+            return new Expr.ListLiteral(bracket, elements);
+        }
+
+        if (match(LEFT_BRACE)) {
+            Token brace = previous();
+            List<Expr> keys = new ArrayList<>();
+            List<Expr> values = new ArrayList<>();
+            if (!check(RIGHT_BRACE)) {
+                do {
+                    keys.add(expression());
+                    expect(COLON, "Expect ':' after map key.");
+                    values.add(expression());
+                } while (match(COMMA));
+            }
+            expect(RIGHT_BRACE, "Expect '}' after map entries.");
+            return new Expr.MapLiteral(brace, keys, values);
+        }
+
         throw error(peek(), "Expect expression.");
     }
 
@@ -412,31 +480,39 @@ class Parser {
     }
 
     private Token consume(TokenType type, String message) {
-        if (check(type)) return advance();
+        expect(type, message);
+        return previous();
+    }
+
+    // consume for tokens that are not kept.
+    private void expect(TokenType type, String message) {
+        if (check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private boolean check(TokenType tokenType) {
         if (isAtEnd()) return false;
-        return peek().type == tokenType;
+        return tokens.type(current) == tokenType;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == EOF;
+        return tokens.type(current) == EOF;
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message) {
@@ -448,9 +524,9 @@ class Parser {
         advance();
 
         while (!isAtEnd()) {
-            if (previous().type == SEMICOLON) return;
+            if (tokens.type(current - 1) == SEMICOLON) return;
 
-            switch (peek().type) {
+            switch (tokens.type(current)) {
                 case CLASS:
                 case FUNC:
                 case VAR:
@@ -459,6 +535,7 @@ class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case IMPORT:
                     return;
             }
 
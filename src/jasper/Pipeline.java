@@ -0,0 +1,74 @@
+package jasper;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+
+/*
+ * The front end as a pipeline, so a script starts running before all of
+ * it has been read. Scanner runs on its own thread, feeding Parser through
+ * its TokenBuffer ring; Parser runs on another and hands over each
+ * top-level declaration as soon as it is complete; the calling thread
+ * resolves and executes declarations in order as they arrive.
+ *
+ * A syntax error late in the file is therefore only found after the
+ * declarations before it have run. Nothing runs after an error.
+ */
+final class Pipeline {
+    // Marks the end of the declarations.
+    private static final Stmt END = new Stmt.Block(List.of());
+
+    private Pipeline() {
+    }
+
+    // Passes each declaration to stage, in order, as it is parsed.
+    static void run(Source source, Consumer<Stmt> stage) {
+        Scanner scanner = new Scanner(source);
+        Parser parser = new Parser(scanner);
+        BlockingQueue<Stmt> parsed = new ArrayBlockingQueue<>(64);
+        Throwable[] failure = new Throwable[1];
+
+        Thread parsing = new Thread(() -> {
+            try {
+                while (parser.hasNext()) {
+                    Stmt statement = parser.next();
+                    if (statement != null) put(parsed, statement);
+                }
+            } catch (Throwable e) {
+                failure[0] = e;
+            } finally {
+                put(parsed, END);
+            }
+        }, "jasper-parser");
+        parsing.setDaemon(true);
+        scanner.start();
+        parsing.start();
+
+        while (true) {
+            Stmt statement = take(parsed);
+            if (statement == END) break;
+            stage.accept(statement);
+        }
+        // END is queued last, so the parser thread's writes are visible.
+        if (failure[0] instanceof RuntimeException) throw (RuntimeException) failure[0];
+        if (failure[0] instanceof Error) throw (Error) failure[0];
+    }
+
+    private static void put(BlockingQueue<Stmt> queue, Stmt statement) {
+        try {
+            queue.put(statement);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Stmt take(BlockingQueue<Stmt> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return END;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package jasper;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Sampling profiler for Jasper code, for --profile. Function.invoke keeps
+ * a shadow stack of the declarations being run, and a sampler thread
+ * copies it at a fixed interval and counts each distinct stack. The
+ * interpreter thread only stores an array slot and the depth per call; the
+ * sampler may see a stack a call out of date, which sampling tolerates.
+ *
+ * Results are written as collapsed stacks, one "a;b;c count" line per
+ * stack, which flame graph tools read, and summed up as a table of the
+ * functions with the most samples.
+ */
+final class Profiler {
+    private static final long INTERVAL_NANOS = 1_000_000;
+    private static final int TOP = 20;
+    private static final String SCRIPT = "<script>";
+    private static final VarHandle DEPTH;
+
+    static {
+        try {
+            DEPTH = MethodHandles.lookup().findVarHandle(Profiler.class, "depth", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // The shadow stack, written by the interpreter thread. depth is
+    // published to the sampler through DEPTH.
+    private volatile Stmt.Function[] frames = new Stmt.Function[64];
+    private int depth = 0;
+
+    // Only touched by the sampler thread until it has stopped.
+    private final Node root = new Node(null);
+    private final Map<Stmt.Function, Stats> stats = new IdentityHashMap<>();
+    private int samples = 0;
+
+    private final Thread sampler = new Thread(this::sampleUntilStopped, "jasper-profiler");
+    private volatile boolean running = true;
+
+    // A distinct stack, as a path in a tree of calls.
+    private static final class Node {
+        final Stmt.Function function;
+        final Map<Stmt.Function, Node> children = new IdentityHashMap<>();
+        int self = 0;
+
+        Node(Stmt.Function function) {
+            this.function = function;
+        }
+
+        Node child(Stmt.Function function) {
+            return children.computeIfAbsent(function, Node::new);
+        }
+    }
+
+    private static final class Stats {
+        final String label;
+        int self = 0;
+        // Samples with the function anywhere on the stack, counted once
+        // however deep it recurses.
+        int total = 0;
+        int lastSample = -1;
+
+        Stats(String label) {
+            this.label = label;
+        }
+    }
+
+    void start() {
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void enter(Stmt.Function function) {
+        Stmt.Function[] frames = this.frames;
+        int depth = this.depth;
+        if (depth == frames.length) {
+            frames = Arrays.copyOf(frames, depth * 2);
+            this.frames = frames;
+        }
+        frames[depth] = function;
+        DEPTH.setRelease(this, depth + 1);
+    }
+
+    // A tail call runs in the caller's frame.
+    void replace(Stmt.Function function) {
+        frames[depth - 1] = function;
+    }
+
+    void exit() {
+        DEPTH.setRelease(this, depth - 1);
+    }
+
+    private void sampleUntilStopped() {
+        while (running) {
+            LockSupport.parkNanos(INTERVAL_NANOS);
+            sample();
+        }
+    }
+
+    private void sample() {
+        int depth = (int) DEPTH.getAcquire(this);
+        Stmt.Function[] frames = this.frames;
+        Node node = root;
+        Stats leaf = null;
+        for (int i = 0; i < depth && i < frames.length; i++) {
+            Stmt.Function function = frames[i];
+            if (function == null) break;
+            node = node.child(function);
+            leaf = stats.computeIfAbsent(function, Profiler::label);
+            if (leaf.lastSample != samples) {
+                leaf.lastSample = samples;
+                leaf.total++;
+            }
+        }
+        node.self++;
+        if (leaf != null) leaf.self++;
+        samples++;
+    }
+
+    private static Stats label(Stmt.Function function) {
+        return new Stats(function.name.lexeme + ":" + function.name.line);
+    }
+
+    // Stops sampling, writes the collapsed stacks to output and prints
+    // the table to stderr.
+    void report(Path output) {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(output))) {
+            writeCollapsed(writer, root, new StringBuilder(SCRIPT));
+        } catch (IOException e) {
+            System.err.println("[profile] cannot write " + output + ": " + e.getMessage());
+        }
+
+        PrintStream err = System.err;
+        err.printf("[profile] %d samples, one every %d ms; stacks written to %s%n",
+                samples, INTERVAL_NANOS / 1_000_000, output);
+        if (samples == 0) return;
+        List<Stats> functions = new ArrayList<>(stats.values());
+        Stats script = new Stats(SCRIPT);
+        script.self = root.self;
+        script.total = samples;
+        functions.add(script);
+        functions.sort(Comparator.comparingInt((Stats s) -> s.self).thenComparingInt(s -> s.total).reversed());
+        err.printf("%8s %8s  %s%n", "self", "total", "function");
+        for (Stats function : functions.subList(0, Math.min(TOP, functions.size()))) {
+            err.printf("%7.1f%% %7.1f%%  %s%n",
+                    100.0 * function.self / samples, 100.0 * function.total / samples, function.label);
+        }
+    }
+
+    private void writeCollapsed(PrintWriter writer, Node node, StringBuilder stack) {
+        if (node.self > 0) writer.println(stack + " " + node.self);
+        for (Node child : node.children.values()) {
+            int length = stack.length();
+            stack.append(';').append(stats.get(child.function).label);
+            writeCollapsed(writer, child, stack);
+            stack.setLength(length);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package jasper;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/*
+ * Cache of resolved programs next to their scripts, like Python's .pyc:
+ * prog.jasp is cached in prog.jaspc. The file starts with a SHA-256 key
+ * of the source and the options that shape the tree, followed by the
+ * program in AstWriter's format. A key that no longer matches means the
+ * script changed, and the cache is rewritten on that run.
+ */
+final class ProgramCache {
+    private static final int MAGIC = 0x4a415043; // "JAPC"
+    private static final int KEY_LENGTH = 32;
+
+    private ProgramCache() {
+    }
+
+    static Path pathFor(String script) {
+        return Paths.get(script + "c");
+    }
+
+    static byte[] key(ByteBuffer source, boolean optimized) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((byte) AstWriter.VERSION);
+            digest.update((byte) (optimized ? 1 : 0));
+            digest.update(source);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Null when there is no usable cache for this key.
+    static List<Stmt> load(Path cache, byte[] key) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(cache);
+        } catch (IOException e) {
+            return null;
+        }
+        if (bytes.length < 4 + KEY_LENGTH) return null;
+        int magic = (bytes[0] & 0xff) << 24 | (bytes[1] & 0xff) << 16 | (bytes[2] & 0xff) << 8 | (bytes[3] & 0xff);
+        if (magic != MAGIC) return null;
+        if (!Arrays.equals(bytes, 4, 4 + KEY_LENGTH, key, 0, KEY_LENGTH)) return null;
+        try {
+            InputStream in = new ByteArrayInputStream(bytes, 4 + KEY_LENGTH, bytes.length - 4 - KEY_LENGTH);
+            return new AstReader(in).read();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Best effort: a cache that cannot be written only costs the next run
+    // its front end.
+    static void store(Path cache, byte[] key, List<Stmt> statements) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.write(key);
+            new AstWriter(out).write(statements);
+            Path parent = cache.toAbsolutePath().getParent();
+            Path temp = Files.createTempFile(parent, cache.getFileName().toString(), ".tmp");
+            try {
+                Files.write(temp, bytes.toByteArray());
+                copyPermissions(temp, cache);
+                Files.move(temp, cache, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | UnsupportedOperationException e) {
+            // Read-only directory and the like.
+        }
+    }
+
+    // createTempFile makes the file private to its owner, and the move keeps
+    // that, so the cache takes its script's permissions instead, like .pyc
+    // files do.
+    private static void copyPermissions(Path temp, Path cache) throws IOException {
+        String name = cache.getFileName().toString();
+        Path script = cache.resolveSibling(name.substring(0, name.length() - 1));
+        try {
+            Files.setPosixFilePermissions(temp, Files.getPosixFilePermissions(script));
+        } catch (UnsupportedOperationException e) {
+            // Not a POSIX file system; its defaults apply.
+        }
+    }
+}
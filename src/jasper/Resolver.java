@@ -3,9 +3,10 @@ package jasper;
 import java.util.*;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<HashMap<String, Boolean>> scopes = new Stack<>();
+    private final Stack<HashMap<String, Local>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
+    // Declaration of the innermost enclosing function, null at top level.
+    private Stmt.Function currentDeclaration = null;
     private ClassType currentClass = ClassType.NONE;
     private enum FunctionType{
         NONE,
@@ -18,8 +19,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         CLASS,
         SUBCLASS
     }
-    public Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    // A local's slot is its declaration order within the scope, which is the
+    // order Environment.define hands out slots at runtime.
+    private static class Local {
+        final int slot;
+        boolean defined = false;
+        // The declaring statement when the local is a plain 'var'.
+        Stmt.Var declaration = null;
+
+        Local(int slot) {
+            this.slot = slot;
+        }
+    }
+    public Resolver() {
     }
 
     public Void visitBlockStmt(Stmt.Block stmt) {
@@ -48,10 +60,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             currentClass = ClassType.SUBCLASS;
             resolve(stmt.superclass);
             beginScope();
-            scopes.peek().put("super",true);
+            declareSynthetic("super");
         }
-        beginScope();
-        scopes.peek().put("this", true);
         for(Stmt.Function method : stmt.methods){
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -59,7 +69,6 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             }
             resolveFunction(method, declaration);
         }
-        endScope();
         if(stmt.superclass!=null)endScope();
         currentClass = enclosingClass;
         return  null;
@@ -74,8 +83,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
     private void resolveFunction(Stmt.Function function, FunctionType type){
         FunctionType enclosingFunction = currentFunction;
+        Stmt.Function enclosingDeclaration = currentDeclaration;
         currentFunction = type;
+        currentDeclaration = function;
         beginScope();
+        // Methods receive "this" in slot 0 of their own frame, ahead of
+        // the parameters, so calling one never needs a bound copy.
+        if(type == FunctionType.METHOD || type == FunctionType.INITIALIZER){
+            declareSynthetic("this");
+        }
         for(Token param : function.parameters){
             declare(param);
             define(param);
@@ -83,6 +99,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve(function.body);
         endScope();
         currentFunction = enclosingFunction;
+        currentDeclaration = enclosingDeclaration;
     }
 
     @Override
@@ -93,6 +110,16 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        // Modules run once, into the globals, so only top-level code may
+        // import them.
+        if (!scopes.isEmpty()) {
+            Jasper.error(stmt.keyword, "Can only import at top level.");
+        }
+        return null;
+    }
+
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         resolve(stmt.expression);
@@ -109,6 +136,9 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                 Jasper.error(stmt.keyword, "Can't return a value from initializer");
             }
             resolve(stmt.value);
+            // A returned call is always in tail position: nothing in the
+            // function runs after it.
+            stmt.tailCall = stmt.value instanceof Expr.Call;
         }
         return null;
     }
@@ -116,6 +146,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         declare(stmt.name);
+        if (!scopes.isEmpty()) scopes.peek().get(stmt.name.lexeme).declaration = stmt;
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -125,6 +156,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.function = currentDeclaration;
         resolve(stmt.condition);
         resolve(stmt.body);
         return null;
@@ -145,7 +177,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
 
     private void beginScope() {
-        this.scopes.push(new HashMap<String, Boolean>());
+        this.scopes.push(new HashMap<String, Local>());
         return;
     }
 
@@ -156,16 +188,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void declare(Token name) {
         if (scopes.isEmpty()) return;
-        Map<String, Boolean> curr_scope = scopes.peek();
+        Map<String, Local> curr_scope = scopes.peek();
         if(curr_scope.containsKey(name.lexeme)){
             Jasper.error(name, "̌Variable with this name already defined");
+            return;
         }
-        curr_scope.put(name.lexeme, false);
+        curr_scope.put(name.lexeme, new Local(curr_scope.size()));
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme).defined = true;
+    }
+
+    private void declareSynthetic(String name) {
+        Local local = new Local(scopes.peek().size());
+        local.defined = true;
+        scopes.peek().put(name, local);
     }
 
     @Override
@@ -197,6 +236,30 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return  null;
     }
 
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitListLiteralExpr(Expr.ListLiteral expr) {
+        for (Expr element : expr.elements) {
+            resolve(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitMapLiteralExpr(Expr.MapLiteral expr) {
+        for (int i = 0; i < expr.keys.size(); i++) {
+            resolve(expr.keys.get(i));
+            resolve(expr.values.get(i));
+        }
+        return null;
+    }
+
     @Override
     public Void visitSetExpr(Expr.Set expr) {
         resolve(expr.value);
@@ -204,6 +267,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return  null;
     }
 
+    @Override
+    public Void visitSetIndexExpr(Expr.SetIndex expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if(currentClass == ClassType.NONE){
@@ -252,7 +323,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE){
+        if (!scopes.isEmpty() && scopes.peek().containsKey(expr.name.lexeme)
+                && !scopes.peek().get(expr.name.lexeme).defined){
             Jasper.error(expr.name, "Can't read local variable in it's own initializer");
         }
         resolveLocal(expr, expr.name);
@@ -260,11 +332,32 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     }
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            Local local = scopes.get(i).get(name.lexeme);
+            if (local != null) {
+                setResolution(expr, scopes.size() - 1 - i, local);
                 return;
             }
         }
     }
 
+    // Globals keep the generated default depth of -1.
+    private void setResolution(Expr expr, int depth, Local local) {
+        int slot = local.slot;
+        if (expr instanceof Expr.Variable) {
+            ((Expr.Variable)expr).depth = depth;
+            ((Expr.Variable)expr).slot = slot;
+            ((Expr.Variable)expr).declaration = local.declaration;
+        } else if (expr instanceof Expr.Assign) {
+            ((Expr.Assign)expr).depth = depth;
+            ((Expr.Assign)expr).slot = slot;
+            if (local.declaration != null) local.declaration.reassigned = true;
+        } else if (expr instanceof Expr.This) {
+            ((Expr.This)expr).depth = depth;
+            ((Expr.This)expr).slot = slot;
+        } else if (expr instanceof Expr.Super) {
+            ((Expr.Super)expr).depth = depth;
+            ((Expr.Super)expr).slot = slot;
+        }
+    }
+
 }
@@ -2,9 +2,18 @@ package jasper;
 
 public class RuntimeError extends RuntimeException {
     final Token token;
+    final int line;
 
     public RuntimeError(Token token,String message) {
         super(message);
         this.token = token;
+        this.line = token == null ? 0 : token.line;
+    }
+
+    // Used by the VM, which tracks lines per instruction rather than tokens.
+    public RuntimeError(int line, String message) {
+        super(message);
+        this.token = null;
+        this.line = line;
     }
 }
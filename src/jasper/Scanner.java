@@ -3,7 +3,11 @@ import java.util.*;
 
 import static jasper.TokenType.*;
 
-public class Scanner {
+/*
+ * Scans into a TokenBuffer a window at a time as Parser asks for tokens,
+ * so no list of tokens for the whole file is ever built.
+ */
+public final class Scanner {
     private static final Map<String, TokenType> keywords;
 
     static {
@@ -15,6 +19,7 @@ public class Scanner {
         keywords.put("for",    FOR);
         keywords.put("func",    FUNC);
         keywords.put("if",     IF);
+        keywords.put("import", IMPORT);
         keywords.put("nil",    NIL);
         keywords.put("or",     OR);
         keywords.put("print",  PRINT);
@@ -26,26 +31,66 @@ public class Scanner {
         keywords.put("while",  WHILE);
     }
 
-    private final String source;
-    private final List<Token> tokenList;
+    private final Source source;
+    private final TokenBuffer tokens;
+    private final SymbolTable symbols = new SymbolTable();
+    private boolean done = false;
     private int start =0;
     private int current = 0;
     private  int line =1;
 
     public Scanner(String source) {
+        this(Source.of(source));
+    }
+
+    Scanner(Source source) {
         this.source = source;
-        this.tokenList = new ArrayList<>();
+        this.tokens = new TokenBuffer(this, source);
     }
     private boolean isAtEnd(){
         return  current >= source.length();
     }
+
+    TokenBuffer tokens() {
+        return tokens;
+    }
+
     List<Token> scanTokens(){
-        while(!isAtEnd()){
+        List<Token> result = new ArrayList<>();
+        for (long i = 0; ; i++) {
+            Token token = tokens.token(i);
+            result.add(token);
+            if (token.type == EOF) return result;
+        }
+    }
+
+    // Scans the whole source on a thread of its own, running ahead of the
+    // parser by up to the buffer's capacity.
+    void start() {
+        tokens.concurrent();
+        Thread thread = new Thread(() -> {
+            try {
+                fill(Long.MAX_VALUE);
+            } finally {
+                // Never leave the parser waiting for a token.
+                if (!done) tokens.add(EOF, current, 0, line, null);
+            }
+        }, "jasper-scanner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Scans until the buffer holds limit tokens or the final EOF token.
+    void fill(long limit) {
+        while (!done && tokens.size() < limit) {
+            if (isAtEnd()) {
+                tokens.add(EOF, current, 0, line, null);
+                done = true;
+                return;
+            }
             start = current;
             scanToken();
         }
-        tokenList.add(new Token(EOF, "",null, line));
-        return  tokenList;
     }
     private char advance(){
         return source.charAt(current++);
@@ -57,6 +102,9 @@ public class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
+            case ':': addToken(COLON); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -124,10 +172,10 @@ public class Scanner {
     }
     private void identifier() {
         while (isAlphaNumeric(peek(0))) advance();
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
+        String name = symbols.intern(source, start, current);
+        TokenType type = keywords.get(name);
         if (type == null) type = IDENTIFIER;
-        addToken(type);
+        tokens.add(type, start, current - start, line, name);
     }
     private boolean isDigit(char c){
         return (c <= '9' && c >='0');
@@ -138,7 +186,7 @@ public class Scanner {
             do advance();
             while (isDigit(peek(0)));
         }
-        addToken(NUMBER, Double.parseDouble(source.substring(start,current)));
+        addToken(NUMBER);
     }
     private boolean isAlpha(char c) {
         return (c >= 'a' && c <= 'z') ||
@@ -162,8 +210,7 @@ public class Scanner {
         }
         if(!error){
             advance();
-            String val = source.substring(start+1,current-1);
-            addToken(STRING, val);
+            addToken(STRING);
         }
 
     }
@@ -177,11 +224,8 @@ public class Scanner {
         current++;
         return true;
     }
+    // The lexeme and literal are left in the source until Parser needs them.
     private void addToken(TokenType type){
-        addToken(type, null);
-    }
-    private void addToken(TokenType type,Object literal){
-        String s = source.substring(start,current);
-        tokenList.add(new Token(type, s, literal, line));
+        tokens.add(type, start, current - start, line, null);
     }
 }
@@ -0,0 +1,54 @@
+package jasper;
+import java.util.*;
+
+/*
+ * Hidden class shared by every instance that gained the same fields in
+ * the same order. A shape maps field names to indexes into the
+ * instance's field array; adding a field moves the instance to a child
+ * shape, and identical additions reuse the same child.
+ *
+ * Field names are kept in an array by slot and looked up by a linear
+ * scan, comparing identity and cached hashes before characters. A child
+ * shares its parent's array when it is the first to add a field to it,
+ * so a class whose instances gain fields in one order keeps a single
+ * array for the whole chain; only a second, different child copies.
+ */
+class Shape {
+    private final String[] names;
+    private final Map<String, Shape> transitions = new HashMap<>();
+    final int size;
+
+    Shape() {
+        this.names = new String[4];
+        this.size = 0;
+    }
+
+    private Shape(Shape parent, String name) {
+        this.size = parent.size + 1;
+        String[] names = parent.names;
+        if (parent.size == names.length || names[parent.size] != null) {
+            names = Arrays.copyOf(names, Math.max(4, size * 2));
+            Arrays.fill(names, size, names.length, null);
+        }
+        names[parent.size] = name;
+        this.names = names;
+    }
+
+    int slotOf(String name) {
+        int hash = name.hashCode();
+        for (int slot = 0; slot < size; slot++) {
+            String field = names[slot];
+            if (field == name || (field.hashCode() == hash && field.equals(name))) return slot;
+        }
+        return -1;
+    }
+
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            next = new Shape(this, name);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
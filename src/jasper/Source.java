@@ -0,0 +1,95 @@
+package jasper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * The characters Scanner reads. A script file is memory-mapped and read
+ * byte by byte rather than decoded into a String first: everything the
+ * grammar looks at is ASCII, so only the text of a lexeme is decoded, as
+ * UTF-8, and only when a token needs it.
+ */
+abstract class Source {
+    abstract int length();
+
+    // The byte at index for a mapped file, which equals the character for
+    // ASCII; any other byte is simply not part of the grammar.
+    abstract char charAt(int index);
+
+    abstract String text(int start, int end);
+
+    // The raw bytes, for hashing.
+    abstract ByteBuffer bytes();
+
+    static Source of(String text) {
+        return new Text(text);
+    }
+
+    static Source map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Mapped(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    private static final class Text extends Source {
+        private final String text;
+
+        Text(String text) {
+            this.text = text;
+        }
+
+        @Override
+        int length() {
+            return text.length();
+        }
+
+        @Override
+        char charAt(int index) {
+            return text.charAt(index);
+        }
+
+        @Override
+        String text(int start, int end) {
+            return text.substring(start, end);
+        }
+
+        @Override
+        ByteBuffer bytes() {
+            return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static final class Mapped extends Source {
+        private final ByteBuffer buffer;
+
+        Mapped(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        int length() {
+            return buffer.limit();
+        }
+
+        @Override
+        char charAt(int index) {
+            return (char) (buffer.get(index) & 0xff);
+        }
+
+        @Override
+        String text(int start, int end) {
+            byte[] bytes = new byte[end - start];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        ByteBuffer bytes() {
+            return buffer.duplicate();
+        }
+    }
+}
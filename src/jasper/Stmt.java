@@ -3,12 +3,15 @@ package jasper;
 import java.util.*;
 
 abstract class Stmt{
+  int line;
+
  interface Visitor<R> {
  R visitBlockStmt(Block stmt);
  R visitExpressionStmt(Expression stmt);
  R visitClassStmt(Class stmt);
  R visitFunctionStmt(Function stmt);
  R visitIfStmt(If stmt);
+ R visitImportStmt(Import stmt);
  R visitPrintStmt(Print stmt);
  R visitReturnStmt(Return stmt);
  R visitVarStmt(Var stmt);
@@ -69,6 +72,9 @@ abstract class Stmt{
     final Token name;
     final List<Token> parameters;
     final List<Stmt> body;
+
+    int calls;
+    JitCode jitCode;
   }
  static class If extends Stmt {
     If(Expr condition, Stmt then, Stmt elseBranch) {
@@ -86,6 +92,22 @@ abstract class Stmt{
     final Stmt then;
     final Stmt elseBranch;
   }
+ static class Import extends Stmt {
+    Import(Token keyword, Token path) {
+      this.keyword = keyword;
+      this.path = path;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitImportStmt(this);
+    }
+
+    final Token keyword;
+    final Token path;
+
+    Module module;
+  }
  static class Print extends Stmt {
     Print(Expr expression) {
       this.expression = expression;
@@ -111,6 +133,8 @@ abstract class Stmt{
 
     final Token keyword;
     final Expr value;
+
+    boolean tailCall;
   }
  static class Var extends Stmt {
     Var(Token name, Expr initializer) {
@@ -125,6 +149,8 @@ abstract class Stmt{
 
     final Token name;
     final Expr initializer;
+
+    boolean reassigned;
   }
  static class While extends Stmt {
     While(Expr condition, Stmt body) {
@@ -139,6 +165,9 @@ abstract class Stmt{
 
     final Expr condition;
     final Stmt body;
+
+    int backEdges;
+    Stmt.Function function;
   }
 
     abstract <R> R accept(Visitor<R> visitor);
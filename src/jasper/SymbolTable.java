@@ -0,0 +1,60 @@
+package jasper;
+
+/*
+ * Interns identifier names straight from the source: a name is hashed and
+ * compared in place, and a String is only made the first time it is seen.
+ * Open addressing with linear probing over a power-of-two table.
+ */
+final class SymbolTable {
+    private String[] names = new String[256];
+    private int[] hashes = new int[256];
+    private int size = 0;
+
+    String intern(Source source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        int mask = names.length - 1;
+        int index = mix(hash) & mask;
+        while (names[index] != null) {
+            if (hashes[index] == hash && matches(names[index], source, start, end)) {
+                return names[index];
+            }
+            index = (index + 1) & mask;
+        }
+
+        String name = source.text(start, end);
+        names[index] = name;
+        hashes[index] = hash;
+        if (++size * 2 > names.length) grow();
+        return name;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean matches(String name, Source source, int start, int end) {
+        if (name.length() != end - start) return false;
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != source.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        int[] oldHashes = hashes;
+        names = new String[oldNames.length * 2];
+        hashes = new int[oldNames.length * 2];
+        int mask = names.length - 1;
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] == null) continue;
+            int index = mix(oldHashes[i]) & mask;
+            while (names[index] != null) index = (index + 1) & mask;
+            names[index] = oldNames[i];
+            hashes[index] = oldHashes[i];
+        }
+    }
+}
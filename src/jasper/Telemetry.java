@@ -0,0 +1,141 @@
+package jasper;
+
+import jdk.jfr.*;
+
+/*
+ * Java Flight Recorder events for the interpreter: slow Jasper function
+ * calls, compile phases, runtime errors, and counters of the objects the
+ * interpreter allocates most, emitted periodically.
+ *
+ * Nothing touches an event class before a recording is running, since
+ * loading one starts up the recorder, and hot paths only read a flag
+ * before doing any work for an event. The flags follow the event settings
+ * of the recordings running, and are updated as recordings start and stop.
+ */
+final class Telemetry {
+    static volatile boolean recording = false;
+    static volatile boolean calls = false;
+    static volatile boolean counting = false;
+
+    // Written by the interpreter thread while counting; the periodic hook
+    // may read them slightly out of date.
+    static long environments = 0;
+    static long instances = 0;
+    static long boundMethods = 0;
+    static long boxedDoubles = 0;
+
+    @Name("jasper.FunctionCall")
+    @Label("Jasper Function Call")
+    @Description("A call to a Jasper function, including the tail calls it made")
+    @Category("Jasper")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class FunctionCall extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jasper.CompilePhase")
+    @Label("Jasper Compile Phase")
+    @Category("Jasper")
+    @StackTrace(false)
+    static final class CompilePhase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+
+    @Name("jasper.RuntimeError")
+    @Label("Jasper Runtime Error")
+    @Category("Jasper")
+    @StackTrace(false)
+    static final class ScriptError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    @Name("jasper.Counters")
+    @Label("Jasper Counters")
+    @Description("Objects allocated by the interpreter while recording")
+    @Category("Jasper")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class Counters extends Event {
+        @Label("Environments")
+        long environments;
+
+        @Label("Instances")
+        long instances;
+
+        @Label("Bound Methods")
+        long boundMethods;
+
+        @Label("Boxed Doubles")
+        @Description("Numbers boxed for the results of binary operators")
+        long boxedDoubles;
+    }
+
+    // Registering events would start up the recorder, which takes a good
+    // part of a short run, so that waits until something else starts it:
+    // -XX:StartFlightRecording, or jcmd later on.
+    static void install() {
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recorderInitialized(FlightRecorder recorder) {
+                FlightRecorder.addPeriodicEvent(Counters.class, Telemetry::emitCounters);
+                update();
+            }
+
+            @Override
+            public void recordingStateChanged(Recording recording) {
+                if (FlightRecorder.isInitialized()) update();
+            }
+        });
+    }
+
+    private static void update() {
+        boolean running = false;
+        for (Recording recording : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (recording.getState() == RecordingState.RUNNING) running = true;
+        }
+        recording = running;
+        calls = EventType.getEventType(FunctionCall.class).isEnabled();
+        counting = EventType.getEventType(Counters.class).isEnabled();
+    }
+
+    private static void emitCounters() {
+        Counters event = new Counters();
+        event.environments = environments;
+        event.instances = instances;
+        event.boundMethods = boundMethods;
+        event.boxedDoubles = boxedDoubles;
+        event.commit();
+    }
+
+    // Null when not recording; passed to end() once the phase is over.
+    static CompilePhase phase(String name) {
+        if (!recording) return null;
+        CompilePhase event = new CompilePhase();
+        event.phase = name;
+        event.begin();
+        return event;
+    }
+
+    static void end(CompilePhase phase) {
+        if (phase != null) phase.commit();
+    }
+
+    static void runtimeError(RuntimeError error) {
+        if (!recording) return;
+        ScriptError event = new ScriptError();
+        if (!event.isEnabled()) return;
+        event.message = error.getMessage();
+        event.line = error.line;
+        event.commit();
+    }
+}
@@ -0,0 +1,178 @@
+package jasper;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/*
+ * The tokens between Scanner and Parser, kept as parallel primitive arrays
+ * rather than one Token object each. It is a ring indexed by token number:
+ * Scanner refills it as Parser moves along, so only a window of the file's
+ * tokens is ever held. A Token, with its lexeme and literal, is only built
+ * when Parser asks for one; punctuation and keywords Parser merely checks
+ * never become objects, and identifier text comes from a SymbolTable.
+ *
+ * Scanner either fills the ring when Parser runs out of tokens, or, for
+ * the pipelined front end, runs ahead on a thread of its own. The ring is
+ * then a lock-free single-producer single-consumer queue: Scanner
+ * publishes how many tokens it has added, Parser how far it has read,
+ * and each side only waits when the ring is empty or full.
+ */
+final class TokenBuffer {
+    static final int CAPACITY = 1 << 10;
+    private static final int MASK = CAPACITY - 1;
+    private static final TokenType[] TYPES = TokenType.values();
+    // Lexemes of the types that only have one spelling.
+    private static final String[] FIXED = new String[TYPES.length];
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 100 : 0;
+    private static final VarHandle PUBLISHED;
+    private static final VarHandle RELEASED;
+
+    static {
+        String[][] spellings = {
+                {"LEFT_PAREN", "("}, {"RIGHT_PAREN", ")"}, {"LEFT_BRACE", "{"}, {"RIGHT_BRACE", "}"},
+                {"LEFT_BRACKET", "["}, {"RIGHT_BRACKET", "]"}, {"COLON", ":"},
+                {"COMMA", ","}, {"DOT", "."}, {"MINUS", "-"}, {"PLUS", "+"}, {"SEMICOLON", ";"},
+                {"SLASH", "/"}, {"STAR", "*"}, {"BANG", "!"}, {"BANG_EQUAL", "!="}, {"EQUAL", "="},
+                {"EQUAL_EQUAL", "=="}, {"GREATER", ">"}, {"GREATER_EQUAL", ">="}, {"LESS", "<"},
+                {"LESS_EQUAL", "<="}, {"EOF", ""},
+        };
+        for (String[] spelling : spellings) {
+            FIXED[TokenType.valueOf(spelling[0]).ordinal()] = spelling[1];
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            PUBLISHED = lookup.findVarHandle(TokenBuffer.class, "published", long.class);
+            RELEASED = lookup.findVarHandle(TokenBuffer.class, "released", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final byte[] types = new byte[CAPACITY];
+    private final int[] starts = new int[CAPACITY];
+    private final int[] lengths = new int[CAPACITY];
+    private final int[] lines = new int[CAPACITY];
+    // Interned text of identifiers and keywords, null for other tokens.
+    private final String[] names = new String[CAPACITY];
+    private final Source source;
+    private final Scanner scanner;
+    private boolean concurrent = false;
+
+    // Scanner's side: tokens added, and the last value of released it saw.
+    private long size = 0;
+    private long releasedSeen = -1;
+    // Written by Scanner, with release/acquire through PUBLISHED: tokens
+    // Parser may read.
+    private long published = 0;
+    // Written by Parser, through RELEASED: every slot before this index may
+    // be reused.
+    private long released = -1;
+    // Parser's side: the last value of published it saw, and the furthest
+    // index it has asked for.
+    private long available = 0;
+    private long furthest = -1;
+    // The last token built, since Parser often asks for the same one twice.
+    private long built = -1;
+    private Token token = null;
+
+    TokenBuffer(Scanner scanner, Source source) {
+        this.scanner = scanner;
+        this.source = source;
+    }
+
+    // Called before Scanner starts filling the buffer from another thread.
+    void concurrent() {
+        concurrent = true;
+    }
+
+    // Number of tokens added so far.
+    long size() {
+        return size;
+    }
+
+    void add(TokenType type, int start, int length, int line, String name) {
+        if (size - releasedSeen >= CAPACITY) {
+            for (int spins = 0; size - (releasedSeen = (long) RELEASED.getAcquire(this)) >= CAPACITY; spins++) {
+                backOff(spins);
+            }
+        }
+        int slot = (int) (size & MASK);
+        types[slot] = (byte) type.ordinal();
+        starts[slot] = start;
+        lengths[slot] = length;
+        lines[slot] = line;
+        names[slot] = name;
+        PUBLISHED.setRelease(this, ++size);
+    }
+
+    // Token index must not be more than one behind the furthest index
+    // asked for, since refilling reuses the slots before that.
+    private int slot(long index) {
+        if (index > furthest) {
+            furthest = index;
+            RELEASED.setRelease(this, index - 1);
+        }
+        if (index >= available) {
+            if (!concurrent) scanner.fill(index - 1 + CAPACITY);
+            for (int spins = 0; index >= (available = (long) PUBLISHED.getAcquire(this)); spins++) {
+                backOff(spins);
+            }
+        }
+        return (int) (index & MASK);
+    }
+
+    // Waiting on the other side is normally short: spin first if it can be
+    // running at the same time, then let other threads run.
+    private static void backOff(int spins) {
+        if (spins < SPINS) {
+            Thread.onSpinWait();
+        } else {
+            Thread.yield();
+        }
+    }
+
+    TokenType type(long index) {
+        return TYPES[types[slot(index)]];
+    }
+
+    int line(long index) {
+        return lines[slot(index)];
+    }
+
+    Object literal(long index) {
+        int slot = slot(index);
+        int start = starts[slot];
+        switch (TYPES[types[slot]]) {
+            case NUMBER:
+                return number(start, lengths[slot]);
+            case STRING:
+                return source.text(start + 1, start + lengths[slot] - 1);
+            default:
+                return null;
+        }
+    }
+
+    Token token(long index) {
+        if (index == built) return token;
+        int slot = slot(index);
+        TokenType type = TYPES[types[slot]];
+        String lexeme = names[slot];
+        if (lexeme == null) lexeme = FIXED[type.ordinal()];
+        if (lexeme == null) lexeme = source.text(starts[slot], starts[slot] + lengths[slot]);
+        built = index;
+        token = new Token(type, lexeme, literal(index), lines[slot]);
+        return token;
+    }
+
+    // Whole numbers short enough to be exact are read digit by digit;
+    // anything else goes through Double.parseDouble.
+    private double number(int start, int length) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(start + i);
+            if (c == '.' || i >= 15) return Double.parseDouble(source.text(start, start + length));
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
@@ -0,0 +1,910 @@
+package jasper;
+
+import java.util.*;
+
+/*
+ * Stack-based bytecode engine, selected with --engine=vm. Runs what
+ * Compiler produces on an operand stack shared by all call frames; each
+ * frame's locals start at its base slot, with slot zero holding the callee
+ * or receiver.
+ *
+ * Numbers stay unboxed while on the stack or in a global: the Object slot
+ * holds NUMBER and the value sits in the same slot of a parallel double[].
+ * They are boxed only on the way out, into fields, lists, natives and
+ * closed upvalues, so arithmetic on locals and globals allocates nothing.
+ */
+class VM {
+    private static final int FRAMES_MAX = 4096;
+    private static final int STACK_HEADROOM = 1024;
+    private static final Object UNDEFINED = new Object();
+    private static final Object NUMBER = new Object();
+
+    private static class CallFrame {
+        VmClosure closure;
+        int ip;
+        int base;
+        // Running init for a call of its class, which returns the instance
+        // whatever init returns.
+        boolean constructing;
+    }
+
+    private final Interpreter interpreter;
+    private final Map<String, Integer> globalSlots = new HashMap<>();
+    private String[] globalNames = new String[64];
+    private Object[] globals = new Object[64];
+    private double[] globalNumbers = new double[64];
+
+    private Object[] stack = new Object[STACK_HEADROOM * 4];
+    private double[] numbers = new double[STACK_HEADROOM * 4];
+    private int sp = 0;
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+    private VmUpvalue openUpvalues;
+    // Modules already compiled into a script.
+    final Set<Module> imported = new HashSet<>();
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        for (int i = 0; i < FRAMES_MAX; i++) {
+            frames[i] = new CallFrame();
+        }
+        Arrays.fill(globals, UNDEFINED);
+        // Native functions are shared with the tree-walking interpreter.
+        for (Map.Entry<String, Object> global : interpreter.globals.globalValues().entrySet()) {
+            globals[globalSlot(global.getKey())] = global.getValue();
+        }
+    }
+
+    // Globals are numbered at compile time; the slot stays UNDEFINED
+    // until the program defines it.
+    int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot != null) return slot;
+        int index = globalSlots.size();
+        if (index == globals.length) {
+            globals = Arrays.copyOf(globals, index * 2);
+            globalNumbers = Arrays.copyOf(globalNumbers, index * 2);
+            Arrays.fill(globals, index, globals.length, UNDEFINED);
+            globalNames = Arrays.copyOf(globalNames, index * 2);
+        }
+        globalSlots.put(name, index);
+        globalNames[index] = name;
+        return index;
+    }
+
+    void interpret(List<Stmt> statements) {
+        CompiledFunction script = new Compiler(this).compile(statements);
+        if (Jasper.hadError) return;
+
+        VmClosure closure = new VmClosure(script);
+        try {
+            stack[sp++] = closure;
+            call(closure, 0);
+            run();
+        } catch (RuntimeError error) {
+            Jasper.runtimeError(error);
+            reset();
+        }
+    }
+
+    private void reset() {
+        Arrays.fill(stack, 0, sp, null);
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        Object[] constants = frame.closure.function.chunk.constants;
+        double[] literals = frame.closure.function.chunk.numbers;
+        VmPropertyCache[] caches = frame.closure.function.chunk.caches;
+        Object[] stack = this.stack;
+        double[] numbers = this.numbers;
+        // Globals are only added while compiling, so these stay current.
+        Object[] globals = this.globals;
+        double[] globalNumbers = this.globalNumbers;
+        int ip = frame.ip;
+        int base = frame.base;
+        int sp = this.sp;
+
+        while (true) {
+            switch (code[ip++]) {
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    break;
+                case OpCode.NUMBER:
+                    stack[sp] = NUMBER;
+                    numbers[sp++] = literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    break;
+                case OpCode.NIL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = true;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = false;
+                    break;
+                case OpCode.POP:
+                    sp--;
+                    break;
+                case OpCode.GET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[sp] = stack[slot];
+                    numbers[sp++] = numbers[slot];
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    stack[slot] = stack[sp - 1];
+                    numbers[slot] = numbers[sp - 1];
+                    break;
+                }
+                case OpCode.GET_GLOBAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    Object value = globals[slot];
+                    if (value == UNDEFINED) {
+                        throw error(frame, ip, "Undefined variable '" + globalNames[slot] + "'.");
+                    }
+                    stack[sp] = value;
+                    numbers[sp++] = globalNumbers[slot];
+                    break;
+                }
+                case OpCode.DEFINE_GLOBAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    sp--;
+                    globals[slot] = stack[sp];
+                    globalNumbers[slot] = numbers[sp];
+                    break;
+                }
+                case OpCode.SET_GLOBAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (globals[slot] == UNDEFINED) {
+                        throw error(frame, ip, "Undefined variable '" + globalNames[slot] + "'.");
+                    }
+                    globals[slot] = stack[sp - 1];
+                    globalNumbers[slot] = numbers[sp - 1];
+                    break;
+                }
+                case OpCode.GET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.index >= 0) {
+                        stack[sp] = stack[upvalue.index];
+                        numbers[sp++] = numbers[upvalue.index];
+                    } else {
+                        push(sp++, upvalue.closed);
+                    }
+                    break;
+                }
+                case OpCode.SET_UPVALUE: {
+                    VmUpvalue upvalue = frame.closure.upvalues[code[ip++] & 0xff];
+                    if (upvalue.index >= 0) {
+                        stack[upvalue.index] = stack[sp - 1];
+                        numbers[upvalue.index] = numbers[sp - 1];
+                    } else {
+                        upvalue.closed = value(sp - 1);
+                    }
+                    break;
+                }
+                case OpCode.GET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object object = stack[sp - 1];
+                    if (!(object instanceof VmInstance)) {
+                        ip += 2;
+                        try {
+                            push(sp - 1, Interpreter.property(value(sp - 1), name, null));
+                        } catch (RuntimeError e) {
+                            throw error(frame, ip, e.getMessage());
+                        }
+                        break;
+                    }
+                    VmInstance instance = (VmInstance) object;
+                    VmPropertyCache cache = caches[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    if (cache.shape != instance.shape && !resolve(cache, instance, name)) {
+                        throw error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    if (cache.method == null) {
+                        push(sp - 1, instance.fields[cache.slot]);
+                    } else {
+                        stack[sp - 1] = new VmBoundMethod(instance, cache.method);
+                    }
+                    break;
+                }
+                case OpCode.SET_PROPERTY: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmPropertyCache cache = caches[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    Object object = stack[sp - 2];
+                    if (!(object instanceof VmInstance)) {
+                        throw error(frame, ip, "Only instances have fields.");
+                    }
+                    VmInstance instance = (VmInstance) object;
+                    sp--;
+                    if (cache.shape == instance.shape) {
+                        if (cache.transition != null) instance.moveTo(cache.transition);
+                        instance.fields[cache.slot] = value(sp);
+                    } else {
+                        Shape before = instance.shape;
+                        instance.set(name, value(sp));
+                        cache.fill(before, instance.shape.slotOf(name), null, instance.shape == before ? null : instance.shape);
+                    }
+                    stack[sp - 1] = stack[sp];
+                    numbers[sp - 1] = numbers[sp];
+                    break;
+                }
+                case OpCode.LIST:
+                    stack[sp++] = new JasperList(0);
+                    break;
+                case OpCode.APPEND:
+                    sp--;
+                    ((JasperList) stack[sp - 1]).add(value(sp));
+                    break;
+                case OpCode.MAP:
+                    stack[sp++] = new JasperMap(0);
+                    break;
+                // The interpreter's helpers report errors without a line,
+                // which is added here.
+                case OpCode.GET_INDEX: {
+                    sp--;
+                    try {
+                        push(sp - 1, Interpreter.index(stack[sp - 1], value(sp), null));
+                    } catch (RuntimeError e) {
+                        throw error(frame, ip, e.getMessage());
+                    }
+                    break;
+                }
+                case OpCode.SET_INDEX: {
+                    sp -= 2;
+                    try {
+                        Interpreter.setIndex(stack[sp - 1], value(sp), value(sp + 1), null);
+                    } catch (RuntimeError e) {
+                        throw error(frame, ip, e.getMessage());
+                    }
+                    stack[sp - 1] = stack[sp + 1];
+                    numbers[sp - 1] = numbers[sp + 1];
+                    break;
+                }
+                case OpCode.PUT: {
+                    sp -= 2;
+                    try {
+                        Interpreter.setIndex(stack[sp - 1], value(sp), value(sp + 1), null);
+                    } catch (RuntimeError e) {
+                        throw error(frame, ip, e.getMessage());
+                    }
+                    break;
+                }
+                case OpCode.GET_SUPER: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClass superclass = (VmClass) stack[--sp];
+                    VmClosure method = superclass.methods.get(name);
+                    if (method == null) {
+                        throw error(frame, ip, "Undefined property '" + name + "'.");
+                    }
+                    stack[sp - 1] = new VmBoundMethod(stack[sp - 1], method);
+                    break;
+                }
+                case OpCode.EQUAL:
+                    sp--;
+                    stack[sp - 1] = equal(sp - 1, sp);
+                    break;
+                case OpCode.NOT_EQUAL:
+                    sp--;
+                    stack[sp - 1] = !equal(sp - 1, sp);
+                    break;
+                case OpCode.GREATER:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] > numbers[sp];
+                    break;
+                case OpCode.GREATER_EQUAL:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] >= numbers[sp];
+                    break;
+                case OpCode.LESS:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] < numbers[sp];
+                    break;
+                case OpCode.LESS_EQUAL:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    stack[sp - 1] = numbers[sp - 1] <= numbers[sp];
+                    break;
+                case OpCode.SUBTRACT:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    numbers[sp - 1] -= numbers[sp];
+                    break;
+                case OpCode.MULTIPLY:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    numbers[sp - 1] *= numbers[sp];
+                    break;
+                case OpCode.DIVIDE:
+                    sp--;
+                    if (stack[sp - 1] != NUMBER || stack[sp] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    numbers[sp - 1] /= numbers[sp];
+                    break;
+                case OpCode.ADD: {
+                    sp--;
+                    Object a = stack[sp - 1];
+                    Object b = stack[sp];
+                    if (a == NUMBER && b == NUMBER) {
+                        numbers[sp - 1] += numbers[sp];
+                    } else if (Concat.isString(a) && Concat.isString(b)) {
+                        stack[sp - 1] = Concat.of(a, b);
+                    } else {
+                        throw error(frame, ip, "Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                // A local and a number constant, as in i + 1 or n - 2.
+                case OpCode.LOCAL_ADD_NUMBER: {
+                    int slot = base + (code[ip] & 0xff);
+                    if (stack[slot] != NUMBER) throw error(frame, ip + 3, "Operands must be two numbers or two strings.");
+                    stack[sp] = NUMBER;
+                    numbers[sp++] = numbers[slot] + literals[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)];
+                    ip += 3;
+                    break;
+                }
+                case OpCode.LOCAL_SUBTRACT_NUMBER: {
+                    int slot = base + (code[ip] & 0xff);
+                    if (stack[slot] != NUMBER) throw error(frame, ip + 3, "Operands must be numbers.");
+                    stack[sp] = NUMBER;
+                    numbers[sp++] = numbers[slot] - literals[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)];
+                    ip += 3;
+                    break;
+                }
+                case OpCode.LOCAL_MULTIPLY_NUMBER: {
+                    int slot = base + (code[ip] & 0xff);
+                    if (stack[slot] != NUMBER) throw error(frame, ip + 3, "Operands must be numbers.");
+                    stack[sp] = NUMBER;
+                    numbers[sp++] = numbers[slot] * literals[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)];
+                    ip += 3;
+                    break;
+                }
+                case OpCode.LOCAL_DIVIDE_NUMBER: {
+                    int slot = base + (code[ip] & 0xff);
+                    if (stack[slot] != NUMBER) throw error(frame, ip + 3, "Operands must be numbers.");
+                    stack[sp] = NUMBER;
+                    numbers[sp++] = numbers[slot] / literals[((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)];
+                    ip += 3;
+                    break;
+                }
+                // SET_LOCAL or SET_GLOBAL and POP, for assignment statements.
+                case OpCode.STORE_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    sp--;
+                    stack[slot] = stack[sp];
+                    numbers[slot] = numbers[sp];
+                    break;
+                }
+                case OpCode.STORE_GLOBAL: {
+                    int slot = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                    ip += 2;
+                    if (globals[slot] == UNDEFINED) {
+                        throw error(frame, ip, "Undefined variable '" + globalNames[slot] + "'.");
+                    }
+                    sp--;
+                    globals[slot] = stack[sp];
+                    globalNumbers[slot] = numbers[sp];
+                    break;
+                }
+                // Arithmetic taking its right operand straight from a
+                // number constant or a local.
+                case OpCode.ADD_NUMBER:
+                    if (stack[sp - 1] != NUMBER) throw error(frame, ip + 2, "Operands must be two numbers or two strings.");
+                    numbers[sp - 1] += literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    break;
+                case OpCode.SUBTRACT_NUMBER:
+                    if (stack[sp - 1] != NUMBER) throw error(frame, ip + 2, "Operands must be numbers.");
+                    numbers[sp - 1] -= literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    break;
+                case OpCode.MULTIPLY_NUMBER:
+                    if (stack[sp - 1] != NUMBER) throw error(frame, ip + 2, "Operands must be numbers.");
+                    numbers[sp - 1] *= literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    break;
+                case OpCode.DIVIDE_NUMBER:
+                    if (stack[sp - 1] != NUMBER) throw error(frame, ip + 2, "Operands must be numbers.");
+                    numbers[sp - 1] /= literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    break;
+                case OpCode.ADD_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    Object a = stack[sp - 1];
+                    Object b = stack[slot];
+                    if (a == NUMBER && b == NUMBER) {
+                        numbers[sp - 1] += numbers[slot];
+                    } else if (Concat.isString(a) && Concat.isString(b)) {
+                        stack[sp - 1] = Concat.of(a, b);
+                    } else {
+                        throw error(frame, ip, "Operands must be two numbers or two strings.");
+                    }
+                    break;
+                }
+                case OpCode.SUBTRACT_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    if (stack[sp - 1] != NUMBER || stack[slot] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    numbers[sp - 1] -= numbers[slot];
+                    break;
+                }
+                case OpCode.MULTIPLY_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    if (stack[sp - 1] != NUMBER || stack[slot] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    numbers[sp - 1] *= numbers[slot];
+                    break;
+                }
+                case OpCode.DIVIDE_LOCAL: {
+                    int slot = base + (code[ip++] & 0xff);
+                    if (stack[sp - 1] != NUMBER || stack[slot] != NUMBER) throw error(frame, ip, "Operands must be numbers.");
+                    numbers[sp - 1] /= numbers[slot];
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !Interpreter.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE:
+                    if (stack[sp - 1] != NUMBER) {
+                        throw error(frame, ip, "Operand must be a number.");
+                    }
+                    numbers[sp - 1] = -numbers[sp - 1];
+                    break;
+                case OpCode.PRINT:
+                    sp--;
+                    System.out.println(Interpreter.stringify(value(sp)));
+                    break;
+                case OpCode.JUMP:
+                    ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    break;
+                case OpCode.JUMP_IF_FALSE:
+                    if (Interpreter.isTruthy(stack[sp - 1])) {
+                        ip += 2;
+                    } else {
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    }
+                    break;
+                case OpCode.POP_JUMP_IF_FALSE:
+                    if (Interpreter.isTruthy(stack[--sp])) {
+                        ip += 2;
+                    } else {
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    }
+                    break;
+                // Comparisons fused with the POP_JUMP_IF_FALSE of a loop or
+                // if condition, so no Boolean is made; the _NUMBER and _LOCAL
+                // forms also take their right operand straight from the
+                // constant or local. Compiler.condition picks them.
+                case OpCode.JUMP_IF_NOT_LESS:
+                    sp -= 2;
+                    if (stack[sp] != NUMBER || stack[sp + 1] != NUMBER) throw error(frame, ip + 2, "Operands must be numbers.");
+                    if (numbers[sp] < numbers[sp + 1]) {
+                        ip += 2;
+                    } else {
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    }
+                    break;
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL:
+                    sp -= 2;
+                    if (stack[sp] != NUMBER || stack[sp + 1] != NUMBER) throw error(frame, ip + 2, "Operands must be numbers.");
+                    if (numbers[sp] <= numbers[sp + 1]) {
+                        ip += 2;
+                    } else {
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    }
+                    break;
+                case OpCode.JUMP_IF_NOT_GREATER:
+                    sp -= 2;
+                    if (stack[sp] != NUMBER || stack[sp + 1] != NUMBER) throw error(frame, ip + 2, "Operands must be numbers.");
+                    if (numbers[sp] > numbers[sp + 1]) {
+                        ip += 2;
+                    } else {
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    }
+                    break;
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL:
+                    sp -= 2;
+                    if (stack[sp] != NUMBER || stack[sp + 1] != NUMBER) throw error(frame, ip + 2, "Operands must be numbers.");
+                    if (numbers[sp] >= numbers[sp + 1]) {
+                        ip += 2;
+                    } else {
+                        ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) + 2;
+                    }
+                    break;
+                case OpCode.JUMP_IF_NOT_LESS_NUMBER:
+                    sp--;
+                    if (stack[sp] != NUMBER) throw error(frame, ip + 4, "Operands must be numbers.");
+                    if (numbers[sp] < literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]) {
+                        ip += 4;
+                    } else {
+                        ip += (((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)) + 4;
+                    }
+                    break;
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL_NUMBER:
+                    sp--;
+                    if (stack[sp] != NUMBER) throw error(frame, ip + 4, "Operands must be numbers.");
+                    if (numbers[sp] <= literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]) {
+                        ip += 4;
+                    } else {
+                        ip += (((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)) + 4;
+                    }
+                    break;
+                case OpCode.JUMP_IF_NOT_GREATER_NUMBER:
+                    sp--;
+                    if (stack[sp] != NUMBER) throw error(frame, ip + 4, "Operands must be numbers.");
+                    if (numbers[sp] > literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]) {
+                        ip += 4;
+                    } else {
+                        ip += (((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)) + 4;
+                    }
+                    break;
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL_NUMBER:
+                    sp--;
+                    if (stack[sp] != NUMBER) throw error(frame, ip + 4, "Operands must be numbers.");
+                    if (numbers[sp] >= literals[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]) {
+                        ip += 4;
+                    } else {
+                        ip += (((code[ip + 2] & 0xff) << 8) | (code[ip + 3] & 0xff)) + 4;
+                    }
+                    break;
+                case OpCode.JUMP_IF_NOT_LESS_LOCAL: {
+                    int slot = base + (code[ip] & 0xff);
+                    sp--;
+                    if (stack[sp] != NUMBER || stack[slot] != NUMBER) throw error(frame, ip + 3, "Operands must be numbers.");
+                    if (numbers[sp] < numbers[slot]) {
+                        ip += 3;
+                    } else {
+                        ip += (((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)) + 3;
+                    }
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_LESS_EQUAL_LOCAL: {
+                    int slot = base + (code[ip] & 0xff);
+                    sp--;
+                    if (stack[sp] != NUMBER || stack[slot] != NUMBER) throw error(frame, ip + 3, "Operands must be numbers.");
+                    if (numbers[sp] <= numbers[slot]) {
+                        ip += 3;
+                    } else {
+                        ip += (((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)) + 3;
+                    }
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_LOCAL: {
+                    int slot = base + (code[ip] & 0xff);
+                    sp--;
+                    if (stack[sp] != NUMBER || stack[slot] != NUMBER) throw error(frame, ip + 3, "Operands must be numbers.");
+                    if (numbers[sp] > numbers[slot]) {
+                        ip += 3;
+                    } else {
+                        ip += (((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)) + 3;
+                    }
+                    break;
+                }
+                case OpCode.JUMP_IF_NOT_GREATER_EQUAL_LOCAL: {
+                    int slot = base + (code[ip] & 0xff);
+                    sp--;
+                    if (stack[sp] != NUMBER || stack[slot] != NUMBER) throw error(frame, ip + 3, "Operands must be numbers.");
+                    if (numbers[sp] >= numbers[slot]) {
+                        ip += 3;
+                    } else {
+                        ip += (((code[ip + 1] & 0xff) << 8) | (code[ip + 2] & 0xff)) + 3;
+                    }
+                    break;
+                }
+                case OpCode.LOOP:
+                    ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+                    break;
+                case OpCode.CALL: {
+                    // Calls of closures set up their frame right here; the
+                    // rest, and calls in tail position, take the general path.
+                    int argCount = code[ip] & 0xff;
+                    Object callee = stack[sp - argCount - 1];
+                    if (callee instanceof VmClosure && code[ip + 1] != OpCode.RETURN
+                            && ((VmClosure) callee).function.arity == argCount
+                            && frameCount < FRAMES_MAX && sp + STACK_HEADROOM <= stack.length) {
+                        frame.ip = ip + 1;
+                        frame = frames[frameCount++];
+                        frame.closure = (VmClosure) callee;
+                        frame.base = sp - argCount - 1;
+                        frame.constructing = false;
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        literals = frame.closure.function.chunk.numbers;
+                        caches = frame.closure.function.chunk.caches;
+                        ip = 0;
+                        base = frame.base;
+                        break;
+                    }
+                }
+                // fall through
+                case OpCode.INVOKE:
+                case OpCode.SUPER_INVOKE: {
+                    byte instruction = code[ip - 1];
+                    String name = null;
+                    VmPropertyCache cache = null;
+                    if (instruction != OpCode.CALL) {
+                        name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                    }
+                    if (instruction == OpCode.INVOKE) {
+                        cache = caches[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                        ip += 2;
+                    }
+                    int argCount = code[ip++] & 0xff;
+                    frame.ip = ip;
+                    this.sp = sp;
+                    int callerCount = frameCount;
+                    if (instruction == OpCode.CALL) {
+                        callValue(stack[sp - argCount - 1], argCount);
+                    } else if (instruction == OpCode.INVOKE) {
+                        invoke(name, cache, argCount);
+                    } else {
+                        VmClass superclass = (VmClass) stack[--this.sp];
+                        invokeFromClass(superclass, name, argCount);
+                    }
+                    // "return f(...)": the caller has nothing left to do,
+                    // so the callee takes over its frame.
+                    if (frameCount > callerCount && code[ip] == OpCode.RETURN) {
+                        reuseFrame(frames[callerCount - 1], frames[callerCount]);
+                    }
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    literals = frame.closure.function.chunk.numbers;
+                    caches = frame.closure.function.chunk.caches;
+                    stack = this.stack;
+                    numbers = this.numbers;
+                    ip = frame.ip;
+                    base = frame.base;
+                    sp = this.sp;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    CompiledFunction function = (CompiledFunction) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure closure = new VmClosure(function);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        boolean isLocal = code[ip++] == 1;
+                        int index = code[ip++] & 0xff;
+                        closure.upvalues[i] = isLocal ? captureUpvalue(base + index) : frame.closure.upvalues[index];
+                    }
+                    stack[sp++] = closure;
+                    break;
+                }
+                case OpCode.CLOSE_UPVALUE:
+                    closeUpvalues(sp - 1);
+                    sp--;
+                    break;
+                case OpCode.RETURN: {
+                    sp--;
+                    Object result = frame.constructing ? stack[base] : stack[sp];
+                    double number = numbers[sp];
+                    closeUpvalues(base);
+                    frameCount--;
+                    Arrays.fill(stack, base, sp, null);
+                    if (frameCount == 0) {
+                        this.sp = 0;
+                        return;
+                    }
+                    sp = base;
+                    stack[sp] = result;
+                    numbers[sp++] = number;
+                    frame = frames[frameCount - 1];
+                    code = frame.closure.function.chunk.code;
+                    constants = frame.closure.function.chunk.constants;
+                    literals = frame.closure.function.chunk.numbers;
+                    caches = frame.closure.function.chunk.caches;
+                    ip = frame.ip;
+                    base = frame.base;
+                    break;
+                }
+                case OpCode.CLASS:
+                    stack[sp++] = new VmClass((String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)]);
+                    ip += 2;
+                    break;
+                case OpCode.INHERIT: {
+                    Object superclass = stack[sp - 2];
+                    if (!(superclass instanceof VmClass)) {
+                        throw error(frame, ip, "Superclass must be a class");
+                    }
+                    VmClass subclass = (VmClass) stack[--sp];
+                    // init is inherited as a method but, as in the
+                    // tree-walker, not as the class's initializer.
+                    subclass.methods.putAll(((VmClass) superclass).methods);
+                    break;
+                }
+                case OpCode.METHOD: {
+                    String name = (String) constants[((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)];
+                    ip += 2;
+                    VmClosure method = (VmClosure) stack[--sp];
+                    VmClass c = (VmClass) stack[sp - 1];
+                    c.methods.put(name, method);
+                    if (name.equals("init")) c.initializer = method;
+                    break;
+                }
+                default:
+                    throw error(frame, ip, "Unknown opcode " + code[ip - 1] + ".");
+            }
+        }
+    }
+
+    // The value in a stack slot, boxing a number.
+    private Object value(int slot) {
+        Object value = stack[slot];
+        return value == NUMBER ? (Object) numbers[slot] : value;
+    }
+
+    // Stores a value from outside the stack into a slot, unboxing a number.
+    private void push(int slot, Object value) {
+        if (value instanceof Double) {
+            stack[slot] = NUMBER;
+            numbers[slot] = (double) value;
+        } else {
+            stack[slot] = value;
+        }
+    }
+
+    // Interpreter.isEqual for two stack slots; numbers compare like Double.equals.
+    private boolean equal(int a, int b) {
+        if (stack[a] == NUMBER && stack[b] == NUMBER) {
+            return Double.doubleToLongBits(numbers[a]) == Double.doubleToLongBits(numbers[b]);
+        }
+        return Interpreter.isEqual(value(a), value(b));
+    }
+
+    private void invoke(String name, VmPropertyCache cache, int argCount) {
+        Object receiver = stack[sp - argCount - 1];
+        if (!(receiver instanceof VmInstance)) {
+            throw error("Only instances have properties.");
+        }
+        VmInstance instance = (VmInstance) receiver;
+        if (cache.shape != instance.shape && !resolve(cache, instance, name)) {
+            throw error("Undefined property '" + name + "'.");
+        }
+        if (cache.method != null) {
+            call(cache.method, argCount);
+            return;
+        }
+        push(sp - argCount - 1, instance.fields[cache.slot]);
+        callValue(stack[sp - argCount - 1], argCount);
+    }
+
+    // Fills cache with what name means on instance's shape: a field, or
+    // else a method. False when it is neither.
+    private static boolean resolve(VmPropertyCache cache, VmInstance instance, String name) {
+        int slot = instance.shape.slotOf(name);
+        VmClosure method = slot == -1 ? instance.c.methods.get(name) : null;
+        if (slot == -1 && method == null) return false;
+        cache.fill(instance.shape, slot, method, null);
+        return true;
+    }
+
+    private void invokeFromClass(VmClass c, String name, int argCount) {
+        VmClosure method = c.methods.get(name);
+        if (method == null) {
+            throw error("Undefined property '" + name + "'.");
+        }
+        call(method, argCount);
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof VmClosure) {
+            call((VmClosure) callee, argCount);
+        } else if (callee instanceof VmBoundMethod) {
+            VmBoundMethod bound = (VmBoundMethod) callee;
+            stack[sp - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof VmClass) {
+            VmClass c = (VmClass) callee;
+            stack[sp - argCount - 1] = new VmInstance(c);
+            if (c.initializer != null) {
+                call(c.initializer, argCount);
+                frames[frameCount - 1].constructing = true;
+            } else if (argCount != 0) {
+                throw error("Expected 0 arguments but got " + argCount + ".");
+            }
+        } else if (callee instanceof JasperCallable) {
+            JasperCallable function = (JasperCallable) callee;
+            if (function.arity() != -1 && argCount != function.arity()) {
+                throw error("Expected " + function.arity() + " arguments but got " + argCount + ".");
+            }
+            List<Object> arguments = new ArrayList<>(argCount);
+            for (int i = sp - argCount; i < sp; i++) arguments.add(value(i));
+            Object result;
+            try {
+                result = function.call(interpreter, arguments);
+            } catch (RuntimeError e) {
+                // Natives have no line of their own; blame the call.
+                if (e.line != 0) throw e;
+                throw error(e.getMessage());
+            }
+            Arrays.fill(stack, sp - argCount - 1, sp, null);
+            sp -= argCount + 1;
+            push(sp++, result);
+        } else {
+            throw error("Can only call functions and classes.");
+        }
+    }
+
+    private void call(VmClosure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            throw error("Expected " + closure.function.arity + " arguments but got " + argCount + ".");
+        }
+        if (frameCount == FRAMES_MAX) {
+            throw error("Stack overflow.");
+        }
+        if (sp + STACK_HEADROOM > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+            numbers = Arrays.copyOf(numbers, numbers.length * 2);
+        }
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+        frame.constructing = false;
+    }
+
+    private void reuseFrame(CallFrame caller, CallFrame callee) {
+        closeUpvalues(caller.base);
+        int count = sp - callee.base;
+        System.arraycopy(stack, callee.base, stack, caller.base, count);
+        System.arraycopy(numbers, callee.base, numbers, caller.base, count);
+        Arrays.fill(stack, caller.base + count, sp, null);
+        sp = caller.base + count;
+        caller.closure = callee.closure;
+        caller.ip = 0;
+        caller.constructing = callee.constructing;
+        frameCount--;
+    }
+
+    private VmUpvalue captureUpvalue(int index) {
+        VmUpvalue previous = null;
+        VmUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.index > index) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.index == index) return upvalue;
+
+        VmUpvalue created = new VmUpvalue(index);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.index >= last) {
+            VmUpvalue upvalue = openUpvalues;
+            upvalue.closed = value(upvalue.index);
+            upvalue.index = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private RuntimeError error(String message) {
+        CallFrame frame = frames[frameCount - 1];
+        return error(frame, frame.ip, message);
+    }
+
+    private RuntimeError error(CallFrame frame, int ip, String message) {
+        return new RuntimeError(frame.closure.function.chunk.lines[ip - 1], message);
+    }
+}
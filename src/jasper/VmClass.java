@@ -0,0 +1,19 @@
+package jasper;
+import java.util.*;
+
+class VmClass {
+    final String name;
+    final Map<String, VmClosure> methods = new HashMap<>();
+    VmClosure initializer;
+    final Shape rootShape = new Shape();
+    int instanceSize = 0;
+
+    VmClass(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
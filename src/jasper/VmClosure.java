@@ -0,0 +1,16 @@
+package jasper;
+
+class VmClosure {
+    final CompiledFunction function;
+    final VmUpvalue[] upvalues;
+
+    VmClosure(CompiledFunction function) {
+        this.function = function;
+        this.upvalues = new VmUpvalue[function.upvalueCount];
+    }
+
+    @Override
+    public String toString() {
+        return function.toString();
+    }
+}
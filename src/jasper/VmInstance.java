@@ -0,0 +1,38 @@
+package jasper;
+import java.util.*;
+
+class VmInstance {
+    final VmClass c;
+    // Read and updated in place by the VM's property caches.
+    Shape shape;
+    Object[] fields;
+
+    VmInstance(VmClass c) {
+        this.c = c;
+        this.shape = c.rootShape;
+        this.fields = new Object[c.instanceSize];
+    }
+
+    void set(String name, Object value) {
+        int slot = shape.slotOf(name);
+        if (slot == -1) {
+            moveTo(shape.withField(name));
+            slot = shape.size - 1;
+        }
+        fields[slot] = value;
+    }
+
+    // Switches to a shape with exactly one more field.
+    void moveTo(Shape next) {
+        shape = next;
+        if (next.size > fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+            c.instanceSize = Math.max(c.instanceSize, fields.length);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return c.name + "Instance";
+    }
+}
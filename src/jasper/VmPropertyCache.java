@@ -0,0 +1,23 @@
+package jasper;
+
+/*
+ * The last shape one GET_PROPERTY, SET_PROPERTY or INVOKE instruction
+ * saw, and what its name resolved to there: a field slot, or a method
+ * when slot is -1. For a write that added the field, transition is the
+ * shape the instance moved to. A shape identifies the class as well as
+ * the fields, so a hit needs no other check; a different shape simply
+ * replaces the entry.
+ */
+final class VmPropertyCache {
+    Shape shape = null;
+    int slot = -1;
+    VmClosure method = null;
+    Shape transition = null;
+
+    void fill(Shape shape, int slot, VmClosure method, Shape transition) {
+        this.shape = shape;
+        this.slot = slot;
+        this.method = method;
+        this.transition = transition;
+    }
+}
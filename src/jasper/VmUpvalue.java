@@ -0,0 +1,12 @@
+package jasper;
+
+class VmUpvalue {
+    // Stack slot while the variable is still live, -1 once closed.
+    int index;
+    Object closed;
+    VmUpvalue next;
+
+    VmUpvalue(int index) {
+        this.index = index;
+    }
+}
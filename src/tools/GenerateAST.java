@@ -10,36 +10,44 @@ public class GenerateAST {
 //            System.err.println("Usage: generate_ast <output_directory>");
 //            System.exit(64);
 //        }
-        String outDir = "/Users/rohinjoshi/Work/codes/Jalang/src/jasper/";
-        defineAst(outDir, "Expr", Arrays.asList(
-                "Assign : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call : Expr callee , Token paren , List<Expr> arguments",
-                "Get : Expr object, Token name",
-                "Set: Expr object, Token name, Expr value",
-                "Super: Token keyword, Token method",
-                "This : Token keyword",
+        String outDir = args.length == 1 ? args[0] : "/Users/rohinjoshi/Work/codes/Jalang/src/jasper/";
+        // Fields after '|' are not constructor arguments; they are mutable
+        // slots filled in by later passes, e.g. Resolver's depth and slot.
+        defineAst(outDir, "Expr", null, Arrays.asList(
+                "Assign : Token name, Expr value | int depth = -1, int slot",
+                "Binary   : Expr left, Token operator, Expr right | BinaryNode node = BinaryNode.UNINITIALIZED",
+                "Call : Expr callee , Token paren , List<Expr> arguments | InlineCache cache = new InlineCache()",
+                "Get : Expr object, Token name | InlineCache cache = new InlineCache()",
+                "Index : Expr object, Token bracket, Expr index",
+                "ListLiteral : Token bracket, List<Expr> elements",
+                "Set: Expr object, Token name, Expr value | InlineCache cache = new InlineCache()",
+                "SetIndex : Expr object, Token bracket, Expr index, Expr value",
+                "Super: Token keyword, Token method | int depth = -1, int slot",
+                "This : Token keyword | int depth = -1, int slot",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
+                "MapLiteral : Token brace, List<Expr> keys, List<Expr> values",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name | int depth = -1, int slot, Stmt.Var declaration"
         ));
-        defineAst(outDir, "Stmt", Arrays.asList(
+        // Every statement also records the line it starts on.
+        defineAst(outDir, "Stmt", "int line", Arrays.asList(
                 "Block: List<Stmt> statements",
                 "Expression : Expr expression",
                 "Class : Token name, Expr.Variable superclass," + " List<Stmt.Function> methods",
                 "Function   : Token name, List<Token> parameters," +
-                        " List<Stmt> body",
+                        " List<Stmt> body | int calls, JitCode jitCode",
                 "If         : Expr condition, Stmt then," + " Stmt elseBranch",
+                "Import     : Token keyword, Token path | Module module",
                 "Print      : Expr expression",
-                "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
-                "While      : Expr condition, Stmt body"
+                "Return     : Token keyword, Expr value | boolean tailCall",
+                "Var        : Token name, Expr initializer | boolean reassigned",
+                "While      : Expr condition, Stmt body | int backEdges, Stmt.Function function"
         ));
     }
     private static void defineAst(
-            String outDir, String baseName, List<String> types
+            String outDir, String baseName, String baseFields, List<String> types
     ) throws IOException{
         String path = outDir + "/" + baseName + ".java";
         PrintWriter pw = new PrintWriter(path, "UTF-8");
@@ -48,12 +56,19 @@ public class GenerateAST {
         pw.println("import java.util.*;");
         pw.println();
         pw.println("abstract class "+baseName + "{");
+        if (baseFields != null) {
+            for (String field : baseFields.split(", ")) {
+                pw.println("  " + field + ";");
+            }
+            pw.println();
+        }
         defineVisitor(pw, baseName, types);
         for(String type : types){
             String[] temp = type.split(":");
             String className = temp[0].trim();
-            String fields = temp[1].trim();
-            defineType(pw,baseName,className,fields);
+            String[] fields = temp[1].split("\\|");
+            String mutableFields = fields.length > 1 ? fields[1].trim() : null;
+            defineType(pw,baseName,className,fields[0].trim(), mutableFields);
 
         }
         pw.println();
@@ -73,7 +88,7 @@ public class GenerateAST {
     }
 
     private static void defineType(
-            PrintWriter writer, String baseName, String className, String fieldList
+            PrintWriter writer, String baseName, String className, String fieldList, String mutableFieldList
     ){
         writer.println(" static class "+ className + " extends "+ baseName + " {");
         writer.println("    " + className + "("+ fieldList + ") {");
@@ -93,6 +108,12 @@ public class GenerateAST {
         for (String field : fields) {
             writer.println("    final " + field + ";");
         }
+        if (mutableFieldList != null) {
+            writer.println();
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
         writer.println("  }");
     }
 }